@@ -3,31 +3,117 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.ref.*;
 import java.lang.reflect.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.text.*;
 import javax.swing.undo.*;
 import javax.tools.*;
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
 import java.util.List;
+import javax.swing.Timer;
 
 @SuppressWarnings("serial")
 class LittleBean {
     public static void main(
         String[] args
     ) throws InvocationTargetException, InterruptedException {
+        if (args.length >= 1 && args[0].equals("--check")) {
+            System.exit(BatchCheck.check(
+                Arrays.asList(args).subList(1, args.length), compilerOptions
+            ));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--train")) {
+            train(Path.of(args[1]));
+            return;
+        }
         if (args.length != 1) {
             System.err.println("usage: lb file");
+            System.err.println("       lb --check file-or-directory...");
             System.exit(1);
         }
-        EventQueue.invokeAndWait(new LittleBean(args[0])::go);
+        LittleBean bean = new LittleBean(args[0]);
+        EventQueue.invokeAndWait(bean::go);
+        bean.classArchives.refreshEditor();
+    }
+
+    /**
+     * Goes through startup and a compile without showing anything, then
+     *   exits, for an archive dumped at exit (see ClassArchives).
+     */
+    private static void train(
+        Path directory
+    ) throws InvocationTargetException, InterruptedException {
+        LittleBean bean = new LittleBean(
+            directory.resolve("Code.java").toString()
+        );
+        EventQueue.invokeAndWait(bean::build);
+        String source = bean.initialText.toString();
+        bean.check(source, diagnostic -> {}, () -> false);
+        bean.javaToClass(source, diagnostic -> {}, () -> false);
+        System.exit(0);
     }
 
     private final Path sourcePath;
-    private final String initialText;
+    /** Builds every source in the directory, or null for just the file. */
+    private final DirectoryBuild directoryBuild;
+    private final SourceFile sourceFile;
+    /** Array backed. */
+    private final CharBuffer initialText;
+    /** Output of the last successful compile. Build thread only. */
+    private Map<String, byte[]> classes;
+    /** Compiles and launches in order, on the build thread. */
+    private final Builds builds = new Builds();
+    /** Build thread only. */
+    private final CompilerSession compilerSession =
+        new CompilerSession(compilerOptions);
+    /** Persistent JVM for warm runs, started on demand. Build thread only. */
+    private Runner runner;
+    /** Program compiles are swapped into, if any. Build thread only. */
+    private LiveRun live;
+    /** Launched programs. Created with the window, then build thread only. */
+    private Runs runs;
+    /** Build thread only. */
+    private final Timings timings = new Timings();
+    /** Shared with other instances. */
+    private static final Path cacheDirectory = Path.of(System.getProperty(
+        "littlebean.cacheDir",
+        Path.of(System.getProperty("user.home"), ".cache", "littlebean")
+            .toString()
+    ));
+    /** Earlier successful compiles. */
+    private final BuildCache buildCache = new BuildCache(
+        cacheDirectory, Long.getLong("littlebean.cacheBytes", 256L<<20)
+    );
+    /** Build thread only, but for refreshEditor. */
+    private final ClassArchives classArchives = new ClassArchives(
+        cacheDirectory.resolve("cds"),
+        Boolean.parseBoolean(System.getProperty("littlebean.cds", "true"))
+    );
+    /** Output of launched programs. */
+    private final ConsoleBuffer console = new ConsoleBuffer(
+        Integer.getInteger("littlebean.consoleLines", 10_000)
+    );
+
+    private static final List<String> compilerOptions = List.of(
+        "-Xlint:all",
+        "--enable-preview",
+        "--release", "14"
+    );
 
     private LittleBean(String fileName) {
         Path raw = Path.of(fileName);
@@ -36,36 +122,30 @@ class LittleBean {
         if (isJavaName(leaf)) {
             className = baseName(leaf);
             this.sourcePath = raw.resolveSibling(className+".java");
+            this.directoryBuild = null;
         } else {
             className = "Code";
             this.sourcePath = raw.resolve(className+".java");
+            this.directoryBuild = new DirectoryBuild(raw);
         }
-        StringBuilder buff = new StringBuilder();
-        String initialText;
-        try (Reader in = Files.newBufferedReader(sourcePath)) {
-            char[] cs = new char[8192];
-            for (;;) {
-                int len = in.read(cs);
-                if (len == -1) {
-                    break;
-                }
-                buff.append(cs, 0, len);
-            }
-            initialText = buff.toString();
+        this.sourceFile = new SourceFile(sourcePath);
+        CharBuffer initialText;
+        try {
+            initialText = sourceFile.read();
         } catch (NoSuchFileException exc) {
             // Not FileNotFoundException.
             // Okay.
-            initialText = String.format(
+            initialText = sourceFile.create(String.format(
                 classTemplate,
                 className
-            );
+            ));
         } catch (IOException exc) {
             System.err.println("Error reading file: " + exc);
             exc.printStackTrace();
             System.exit(2);
             throw new Error("Should be unreachable...");
         }
-        this.initialText = initialText;
+        this.initialText = sourceFile.recover(initialText);
     }
     
     private static boolean isJavaName(String leaf) {
@@ -92,16 +172,32 @@ class LittleBean {
     }
 
     private void go() {
+        build().setVisible(true);
+        // Loads javac once the window is up, rather than on the first compile.
+        builds.submitBackground(
+            cancelled -> () -> compilerSession.warmUp(cancelled)
+        );
+    }
+
+    /** Creates the editor, ready to show. */
+    private JFrame build() {
         int commandModifier =
             Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
     
-        Document doc = new PlainDocument();
-        JTextArea edit = new JTextArea(doc, initialText, 0, 80);
+        PieceDocument doc = new PieceDocument(initialText);
+        LineIndex lines = doc.lines();
+        JTextArea edit = new JTextArea(doc, null, 0, 80);
+        Indenter indenter = new Indenter(doc, lines);
+        doc.addDocumentListener(sourceFile);
+        UndoHistory undo = new UndoHistory(
+            Long.getLong("littlebean.undoBytes", 32L<<20)
+        );
+        doc.addUndoableEditListener(undo);
         
         InputMap inputs = edit.getInputMap();
         register(edit, inputs, action(
             "New line", KeyEvent.VK_ENTER, 0, () -> {
-                newLine(doc, edit.getCaretPosition());
+                undo.atomic(() -> indenter.newLine(edit.getCaretPosition()));
             }
         ));
                
@@ -109,20 +205,17 @@ class LittleBean {
             @Override public void keyTyped​(KeyEvent event) {
                 char c = event.getKeyChar();
                 if ("}])".indexOf(c) != -1) {
-                    typeClose(doc, edit.getCaretPosition(), c);
+                    int caret = edit.getCaretPosition();
+                    undo.atomic(() -> indenter.typeClose(caret, c));
                     event.consume();
                 }
             }
         });
 
+        edit.setUI(new HighlightTextAreaUI());
         edit.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
         edit.setLineWrap(true);
         
-        UndoManager undo = new UndoManager();
-        // TODO: Compound undo.
-        doc.addUndoableEditListener(event -> {
-            undo.addEdit(event.getEdit());
-        });
         register(edit, action(
             "Undo", KeyEvent.VK_Z, commandModifier, () -> {
                 try {
@@ -147,15 +240,28 @@ class LittleBean {
             ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS,
             ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED
         );
+        scroll.setRowHeaderView(new LineNumbers(edit, lines));
 
         JTextField javaArgs = new JTextField("");
 
         JFrame frame = new JFrame(sourcePath.toString());
+        StatusLine status = new StatusLine();
         frame.add(javaArgs, BorderLayout.NORTH);
-        frame.add(scroll);
+        JTabbedPane output = new JTabbedPane();
+        output.addTab("Console", new Console(console));
+        ProfilePane profilePane = new ProfilePane(edit, lines);
+        output.addTab("Profile", profilePane);
+        JSplitPane split = new JSplitPane(
+            JSplitPane.VERTICAL_SPLIT, scroll, output
+        );
+        split.setResizeWeight(0.8);
+        frame.add(split);
+        frame.add(status, BorderLayout.SOUTH);
 
-        JPopupMenu menu = new JPopupMenu();
+        // Popup menu is created on first use, so as not to delay opening.
+        List<Action> menu = new ArrayList<>();
         edit.addMouseListener(new MouseAdapter() {
+            private JPopupMenu popup;
             @Override public void mousePressed(MouseEvent event) {
                 poup(event);
             }
@@ -164,39 +270,161 @@ class LittleBean {
             }
             private void poup(MouseEvent event) {
                 if (event.isPopupTrigger()) {
-                    menu.show(edit, event.getX(), event.getY());
+                    if (popup == null) {
+                        popup = new JPopupMenu();
+                        menu.forEach(popup::add);
+                    }
+                    popup.show(edit, event.getX(), event.getY());
                 }
             }
         });
 
-        Errors errors = new Errors(frame, edit);
+        Errors errors = new Errors(frame, edit, lines);
         register(edit, menu, action(
             "Errors", KeyEvent.VK_E, commandModifier, errors::showErrors
         ));
+        register(edit, menu, action(
+            "Go to line", KeyEvent.VK_G, commandModifier,
+            () -> goToLine(frame, edit, lines)
+        ));
 
-        // !! I/O and compilation currently block AWT.
-        Op save = () -> save(edit.getText());
-        Op compile = save.and(() -> {
-            errors.clear();
-            return javaToClass(errors::report);
-        });
-        Op run = compile.and(() -> run(javaArgs.getText()));
+        // Text and arguments are read on AWT when the build is requested,
+        //   I/O and compilation happen on the build thread.
+        new Checker(doc, builds, errors, this::check);
+        Function<BooleanSupplier, Op> save = cancelled -> {
+            long version = sourceFile.version();
+            if (sourceFile.isSaved(version)) {
+                return timings.stage("save", () -> true);
+            }
+            String source = edit.getText();
+            return timings.stage(
+                "save", () -> sourceFile.save(source, version)
+            );
+        };
+        // Compiles from the editor text, without saving.
+        Function<BooleanSupplier, Op> compile = cancelled -> {
+            String source = edit.getText();
+            return timings.stage("compile", () -> {
+                // Filled on the build thread, then reported as one batch.
+                List<Diagnostic<? extends JavaFileObject>> diagnostics =
+                    new ArrayList<>();
+                boolean success =
+                    javaToClass(source, diagnostics::add, cancelled);
+                EventQueue.invokeLater(() -> {
+                    if (!cancelled.getAsBoolean()) {
+                        errors.report(diagnostics);
+                    }
+                });
+                return success;
+            });
+        };
+        // Launches nothing if superseded while compiling.
+        Function<BooleanSupplier, Op> compiled = cancelled ->
+            save.apply(cancelled)
+                .and(compile.apply(cancelled))
+                .and(() -> !cancelled.getAsBoolean());
+        Function<BooleanSupplier, Op> run = cancelled -> {
+            String argString = javaArgs.getText();
+            return compiled.apply(cancelled)
+                .and(timings.stage("launch", () -> run(argString)));
+        };
+        Function<BooleanSupplier, Op> runLive = cancelled -> {
+            String argString = javaArgs.getText();
+            return compiled.apply(cancelled)
+                .and(timings.stage("launch", () -> runLive(argString)));
+        };
+        Function<BooleanSupplier, Op> profile = cancelled -> {
+            String argString = javaArgs.getText();
+            return compiled.apply(cancelled)
+                .and(timings.stage("launch", () -> profile(
+                    argString,
+                    entries -> EventQueue.invokeLater(() -> {
+                        profilePane.show(entries);
+                        output.setSelectedComponent(profilePane);
+                    })
+                )));
+        };
+        Function<BooleanSupplier, Op> benchmark = cancelled -> {
+            String argString = javaArgs.getText();
+            return compiled.apply(cancelled)
+                .and(timings.stage(
+                    "benchmark", () -> benchmark(argString, cancelled)
+                ));
+        };
+        Function<BooleanSupplier, Op> compileSwap =
+            cancelled -> compile.apply(cancelled).and(this::swap);
+        Function<BooleanSupplier, Op> runWarm = cancelled -> {
+            String argString = javaArgs.getText();
+            return compiled.apply(cancelled)
+                .and(timings.stage("launch", () -> runWarm(argString)));
+        };
 
+        Consumer<String> report =
+            summary -> EventQueue.invokeLater(() -> status.add(summary));
+        runs = new Runs(
+            System.getProperty("littlebean.runHeap"),
+            Long.getLong("littlebean.runCpuSeconds", 0),
+            Boolean.getBoolean("littlebean.keepRuns"),
+            report
+        );
+        register(edit, menu, action(
+            "Run", KeyEvent.VK_R, commandModifier,
+            () -> builds.submit(timings.reported(run, report))
+        ));
         register(edit, menu, action(
-            "Run", KeyEvent.VK_R, commandModifier, run::run
+            "Run warm", KeyEvent.VK_R, commandModifier|SHIFT,
+            () -> builds.submit(timings.reported(runWarm, report))
         ));
         register(edit, menu, action(
-            "Compile", KeyEvent.VK_D, commandModifier, compile::run
+            "Run live", KeyEvent.VK_L, commandModifier,
+            () -> builds.submit(timings.reported(runLive, report))
         ));
         register(edit, menu, action(
-            "Save", KeyEvent.VK_S, commandModifier, save::run
+            "Benchmark", KeyEvent.VK_B, commandModifier,
+            () -> builds.submit(timings.reported(benchmark, report))
+        ));
+        register(edit, menu, action(
+            "Profile", KeyEvent.VK_P, commandModifier,
+            () -> builds.submit(timings.reported(profile, report))
+        ));
+        register(edit, menu, action(
+            "Compile", KeyEvent.VK_D, commandModifier,
+            () -> builds.submit(timings.reported(compileSwap, report))
+        ));
+        register(edit, menu, action(
+            "Save", KeyEvent.VK_S, commandModifier,
+            () -> builds.submit(timings.reported(save, report))
         ));
 
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         frame.pack();
-        frame.setVisible(true);
+        return frame;
     }
     
+    /** Asks for a line number, and moves the caret to its start. */
+    private static void goToLine(
+        Component parent,
+        JTextArea edit,
+        LineIndex lines
+    ) {
+        String answer = JOptionPane.showInputDialog(
+            parent, "Line (1-" + lines.lineCount() + "):"
+        );
+        if (answer == null) {
+            return;
+        }
+        int line;
+        try {
+            line = Integer.parseInt(answer.strip());
+        } catch (NumberFormatException exc) {
+            // Shrug.
+            return;
+        }
+        line = Math.max(1, Math.min(lines.lineCount(), line));
+        edit.setCaretPosition(lines.start(line-1));
+        edit.grabFocus();
+    }
+
     private static Action action(
         String name,
         int key,
@@ -216,7 +444,7 @@ class LittleBean {
     
     private static void register(
         JComponent component,
-        JPopupMenu menu,
+        List<Action> menu,
         Action action
     ) {
        register(component, action);
@@ -255,224 +483,397 @@ class LittleBean {
         actions.put(name, action);
     }
     
-    private void newLine(Document doc, int pos) {
+    /**
+     * Reports diagnostics only, without generating classes.
+     * Except in a directory, where other files need the classes,
+     *   which an incremental build keeps for the next.
+     */
+    private boolean check(
+        String source,
+        DiagnosticListener<? super JavaFileObject> listener,
+        BooleanSupplier cancelled
+    ) {
+        if (cancelled.getAsBoolean()) {
+            return false;
+        }
+        if (directoryBuild != null) {
+            javaToClass(source, listener, cancelled);
+            return !cancelled.getAsBoolean();
+        }
+        if (buildCache.replay(
+            buildCache.key(sourcePath, source, compilerOptions),
+            new SourceObject(sourcePath, source),
+            listener
+        ) != null) {
+            return true;
+        }
         try {
-            char[] cs = doc.getText(0, pos).toCharArray();
-            int required = requiredIndent(new CharMatcher(cs));
-            doc.insertString(pos, "\n"+" ".repeat(required), null);
-        } catch (BadLocationException exc) {
-            throw new RuntimeException(exc);
+            compileTask(
+                compilerSession.fileManager(),
+                List.of(new SourceObject(sourcePath, source)),
+                listener,
+                cancelled
+            ).analyze();
+            return true;
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return false;
+        } catch (RuntimeException exc) {
+            if (cancelled.getAsBoolean()) {
+                // Thrown through javac by CancelListener.
+                return false;
+            }
+            throw exc;
         }
     }
 
-    private void typeClose(Document doc, int pos, char close) {
+    private boolean javaToClass(
+        String source,
+        DiagnosticListener<? super JavaFileObject> listener,
+        BooleanSupplier cancelled
+    ) {
+        if (cancelled.getAsBoolean()) {
+            // Superseded before starting.
+            return false;
+        }
         try {
-            char[] cs = doc.getText(0, pos).toCharArray();
-            int remove = 0;
-            int newLine = findPreviousNewLine(cs, pos);
-            if (newLine != -1) {
-                int required = Math.max(
-                    0, requiredIndent(new CharMatcher(cs, 0, newLine)) - 4
+            MemoryFileManager fileManager = compilerSession.fileManager();
+            if (directoryBuild != null) {
+                Map<String, byte[]> built = directoryBuild.build(
+                    sourcePath, source, listener, fileManager,
+                    (units, recorder) ->
+                        compileTask(fileManager, units, recorder, cancelled)
                 );
-                int startOfLine = newLine+1;
-                int actual = pos-startOfLine;
-                remove = Math.max(0, actual-required);
-                if (remove != 0) {
-                    doc.remove(pos-remove, remove);
+                if (built != null) {
+                    classes = built;
                 }
+                return built != null;
             }
-            doc.insertString(pos-remove, Character.toString(close), null);
-        } catch (BadLocationException exc) {
-            throw new RuntimeException(exc);
-        }
-    }
-
-    private int requiredIndent(CharMatcher in) {
-        int indent = 0;
-        //boolean comment = false;
-        boolean wasInCode = false;
-        
-        outer: while (in.hasNext()) {
-            // Deal with leading whitespace, skipping blank lines.
-            int thisIndent = findIndent(in);
-
-            final boolean startsOpen;
-            boolean inCode = false;
-            int open = 0;
-            if (in.match(')') || in.match(']')) {
-                startsOpen = true;
-                --open;
-                inCode = true;
-            } else if (in.match('}')) {
-                startsOpen = true;
-                --open;
-                inCode = false;
-            } else {
-                startsOpen = false;
+            SourceObject unit = new SourceObject(sourcePath, source);
+            String key = buildCache.key(sourcePath, source, compilerOptions);
+            Map<String, byte[]> cached = buildCache.replay(key, unit, listener);
+            if (cached != null) {
+                classes = cached;
+                return true;
             }
-            while (in.hasNext() && !in.match('\n')) {
-                if (in.match('(') || in.match('[') || in.match('{')) {
-                    ++open;
-                    inCode = true;
-                } else if (in.match(')') || in.match(']')) {
-                    --open;
-                    inCode = true;
-                } else if (in.match('}')) {
-                    --open;
-                    inCode = false;
-                } else if (in.match('/')) {
-                    if (in.match('*')) {
-                        // Block comment - TODO
-                    } else if (in.match('/')) {
-                        // Winged comment - skip line. 
-                        while (in.matchExcept('\n')) {
-                            ;
-                        }
-                    } else {
-                        inCode = true;
-                    }
-                } else if (in.match('"')) {
-                    skipQuoted(in, '"');
-                    inCode = true;
-                } else if (in.match('\'')) {
-                    skipQuoted(in, '\'');
-                    inCode = true;
-                } else if (in.match(';') || in.match(',')) {
-                    // Still inCode in for (;;) (also try (;) and lambdas)
-                    inCode = open != 0;
-                } else {
-                    in.next();
-                    inCode = true;
-                }
+            List<Diagnostic<? extends JavaFileObject>> diagnostics =
+                new ArrayList<>();
+            boolean success = compileTask(
+                fileManager,
+                List.of(unit),
+                diagnostic -> {
+                    listener.report(diagnostic);
+                    diagnostics.add(diagnostic);
+                },
+                cancelled
+            ).call();
+            if (success) {
+                classes = fileManager.classes();
+                buildCache.store(key, classes, diagnostics);
             }
-            if (open > 0 || (open == 0 && startsOpen)) {
-                indent =  thisIndent + 4;
-                wasInCode = false;
-            } else if (inCode == wasInCode) {
-                indent = thisIndent;
-            } else {
-                indent = inCode ? thisIndent + 8 : thisIndent - 8;
-                wasInCode = inCode;
+            return success;
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return false;
+        } catch (RuntimeException exc) {
+            if (cancelled.getAsBoolean()) {
+                // Thrown through javac by CancelListener.
+                return false;
             }
+            throw exc;
         }
-        indent = Math.max(0, indent);
-        // Round half indents up.
-        indent = (indent+2)/4*4;
-        return indent;
     }
-    
-    private int findIndent(CharMatcher in) {
-        int thisIndent;
-        do {
-            thisIndent = 0;
-            while (in.match(' ')) {
-                ++thisIndent;
-            }
-        } while (in.match('\n'));
-        return thisIndent;
+
+    private JavacTask compileTask(
+        MemoryFileManager fileManager,
+        List<? extends JavaFileObject> units,
+        DiagnosticListener<? super JavaFileObject> listener,
+        BooleanSupplier cancelled
+    ) {
+        JavacTask task = compilerSession.task(fileManager, listener, units);
+        task.addTaskListener(new CancelListener(cancelled));
+        task.addTaskListener(new PhaseListener(timings));
+        return task;
     }
-    
-    private int findPreviousNewLine(char[] cs, int off) {
-        --off;
-        while (off >= 0 && cs[off] == ' ') {
-            --off;
+
+    private boolean run(String argString) {
+        String className = baseName(sourcePath.getFileName().toString());
+        ClassArchives.Command command =
+            classArchives.program(sourcePath, className, classes);
+        Process process = launch(
+            argString, command == null ? javaCommand() : command.args
+        );
+        if (process != null && command != null) {
+            process.onExit().thenRun(command.exited);
         }
-        return off >= 0 && cs[off] == '\n' ? off : -1;
+        return process != null;
     }
 
-    private void skipQuoted(CharMatcher in, char close) {
-        // Ignore multiline comments.
-        for (;;) {
-            if (in.match('\\')) {
-                // Skip escaped, unless new line.
-                in.matchExcept('\n');
-            } else if (in.match(close)) {
-                break;
-            } else if (in.matchExcept('\n')) {
-                // Ignore.
-            } else {
-                break;
-            }
+    /** Runs with a debug agent, so that later compiles can be swapped in. */
+    private boolean runLive(String argString) {
+        if (live != null) {
+            live.close();
+            live = null;
         }
+        live = LiveRun.start(
+            javaCommand(),
+            command -> launch(argString, command),
+            classes,
+            argString
+        );
+        return live != null;
     }
-    
-    private boolean save(String source) {
-        Path parent = sourcePath.getParent();
+
+    /**
+     * Runs under the flight recorder, summarising the recording on exit.
+     * @param done Given the summary, off AWT.
+     */
+    private boolean profile(
+        String argString, Consumer<List<ProfileEntry>> done
+    ) {
+        Path recording;
         try {
-            if (parent != null) {
-                Files.createDirectories​(parent);
-            }
-            try (Writer out = Files.newBufferedWriter(sourcePath)) {
-                out.write(source);
-                return true;
-            }
+            recording = Files.createTempFile("littlebean", ".jfr");
         } catch (IOException exc) {
             exc.printStackTrace();
             return false;
         }
-    }
-
-    private boolean javaToClass(
-        DiagnosticListener<? super JavaFileObject> listener
-    ) {
-        JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
-        try (StandardJavaFileManager fileManager =
-            javaCompiler.getStandardFileManager(
-                null, Locale.UK, StandardCharsets.UTF_8
-            )
-        ) {
-            Iterable<? extends JavaFileObject> units =
-                fileManager.getJavaFileObjectsFromPaths(List.of(sourcePath));
-            Path workingPath = sourcePath.toAbsolutePath().getParent();
-            if (workingPath == null) {
-                System.err.println("File is apparently not in a directory");
-                return false;
+        Set<String> programClasses = Set.copyOf(classes.keySet());
+        List<String> command = new ArrayList<>(javaCommand());
+        command.add("-Xlog:jfr+startup=error");
+        command.add(
+            "-XX:StartFlightRecording=settings=profile,dumponexit=true," +
+            "filename=" + recording
+        );
+        Process process = launch(argString, command);
+        if (process == null) {
+            try {
+                Files.deleteIfExists(recording);
+            } catch (IOException exc) {
+                exc.printStackTrace();
             }
-            return javaCompiler.getTask(
-                null,
-                fileManager,
-                listener,
-                List.of(
-                    "-d", workingPath.toString(),
-                    "-Xlint:all",
-                    "--enable-preview",
-                    "--release", "14"
-                ),
-                null,
-                units
-            ).call();
-        } catch (IOException exc) {
-            exc.printStackTrace();
             return false;
         }
+        process.onExit().thenRunAsync(() -> {
+            try {
+                done.accept(ProfilePane.summarize(recording, programClasses));
+            } catch (IOException exc) {
+                // E.g. killed before the recording was written.
+                done.accept(List.of(new ProfileEntry(
+                    "No recording: " + exc.getMessage(), -1
+                )));
+            } finally {
+                try {
+                    Files.deleteIfExists(recording);
+                } catch (IOException exc) {
+                    exc.printStackTrace();
+                }
+            }
+        });
+        return true;
     }
 
-    private boolean run(String argString) {
+    /**
+     * Swaps the last compile into the live program, if there is one,
+     *   restarting it if the classes can't be redefined.
+     */
+    private boolean swap() {
+        if (live == null || !live.isAlive()) {
+            return true;
+        }
+        String argString = live.argString;
+        return timings.stage("swap", () -> live.swap(classes, timings::note))
+            .or(timings.stage("restart", () -> runLive(argString)))
+            .run();
+    }
+
+    /**
+     * Starts the program on the last compiled classes, as the run.
+     * @returns null on failure.
+     */
+    private Process launch(String argString, List<String> javaCommand) {
+        runs.beforeStart();
+        CompletableFuture<long[]> usage = new CompletableFuture<>();
+        Process process =
+            start(argSplit(argString), javaCommand, true, usage);
+        if (process != null) {
+            runs.started(
+                baseName(sourcePath.getFileName().toString()), process, usage
+            );
+        }
+        return process;
+    }
+
+    /**
+     * Starts the program on the last compiled classes, untracked.
+     * @param toConsole Output goes to the console (and input is from the
+     *   terminal), else output is discarded (and there is no input).
+     * @param usage Completed with what the program reports at exit.
+     * @returns null on failure.
+     */
+    private Process start(
+        List<String> programArgs,
+        List<String> javaCommand,
+        boolean toConsole,
+        CompletableFuture<long[]> usage
+    ) {
         String className = baseName(sourcePath.getFileName().toString());
-        List<String> args = new ArrayList<>();
-        args.add("java");
-        args.add("--enable-preview");
-        args.add(className);
-        args.addAll(argSplit(argString));
         Path workingPath = sourcePath.toAbsolutePath().getParent();
         if (workingPath == null) {
             System.err.println("File is apparently not in a directory");
-            return false;
+            return null;
         }
+        // The launcher fetches the compiled classes from this socket.
+        ServerSocket server;
         try {
-            new ProcessBuilder(args)
+            server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return null;
+        }
+        Map<String, byte[]> classes = this.classes;
+        List<String> args = new ArrayList<>(javaCommand);
+        args.addAll(runs.options());
+        args.add(Launcher.class.getName());
+        args.add(Integer.toString(server.getLocalPort()));
+        args.add(className);
+        args.addAll(programArgs);
+        Process process;
+        try {
+            // Error is merged into output, so one thread reads both.
+            ProcessBuilder builder = new ProcessBuilder(args)
                 .directory(workingPath.toFile())
-                .redirectError(ProcessBuilder.Redirect.INHERIT)
-                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
-                .redirectInput(ProcessBuilder.Redirect.INHERIT)
-                .start();
-            return true;
+                .redirectErrorStream(true);
+            if (toConsole) {
+                process = builder
+                    .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+                console.pump(process.getInputStream());
+            } else {
+                process = builder
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                process.getOutputStream().close();
+            }
         } catch (IOException exc) {
             exc.printStackTrace();
+            try {
+                server.close();
+            } catch (IOException closeExc) {
+                // Shrug.
+            }
+            return null;
+        }
+        // A program that exits before connecting would leave accept waiting,
+        //   and its exit unreported.
+        process.onExit().thenRun(() -> {
+            try {
+                server.close();
+            } catch (IOException exc) {
+                // Shrug.
+            }
+        });
+        Thread sender = new Thread(
+            () -> usage.complete(Launcher.send(server, classes)),
+            "LittleBean launch"
+        );
+        sender.setDaemon(true);
+        sender.start();
+        return process;
+    }
+
+    /**
+     * Runs the program repeatedly for each set of arguments, separated by
+     *   |, reporting wall times to the console.
+     */
+    private boolean benchmark(String argString, BooleanSupplier cancelled) {
+        runs.beforeStart();
+        List<String> argSets = new ArrayList<>();
+        for (String argSet : argString.split("\\|")) {
+            argSets.add(argSet.trim());
+        }
+        // Started as run starts programs, sharing the program's archive.
+        String className = baseName(sourcePath.getFileName().toString());
+        ClassArchives.Command command =
+            classArchives.program(sourcePath, className, classes);
+        if (command != null && command.dumps) {
+            // An untimed run dumps it, rather than every timed run.
+            Process process = benchmarkRun(argSets.get(0), command.args);
+            try {
+                if (
+                    process == null ||
+                    Benchmark.waitFor(process, cancelled) == null
+                ) {
+                    return false;
+                }
+            } catch (InterruptedException exc) {
+                return false;
+            }
+            command.exited.run();
+            command = classArchives.program(sourcePath, className, classes);
+        }
+        List<String> javaCommand = command == null || command.dumps ?
+            javaCommand() : command.args;
+        String report = new Benchmark(
+            argSet -> benchmarkRun(argSet, javaCommand),
+            Integer.getInteger("littlebean.benchRuns", 10),
+            Integer.getInteger("littlebean.benchWarmUp", 2),
+            Integer.getInteger("littlebean.benchParallel", 1)
+        ).run(argSets, cancelled);
+        if (report == null) {
             return false;
         }
+        byte[] bytes = report.getBytes(StandardCharsets.UTF_8);
+        console.input().write(bytes, 0, bytes.length);
+        return true;
     }
     
+    /** Starts a run with output discarded, tracked but not reported. */
+    private Process benchmarkRun(String argSet, List<String> javaCommand) {
+        CompletableFuture<long[]> usage = new CompletableFuture<>();
+        Process process = start(argSplit(argSet), javaCommand, false, usage);
+        if (process != null) {
+            runs.startedQuietly(
+                baseName(sourcePath.getFileName().toString()), process, usage
+            );
+        }
+        return process;
+    }
+
+    /** Runs in the warm runner JVM, starting it if necessary. */
+    private boolean runWarm(String argString) {
+        String className = baseName(sourcePath.getFileName().toString());
+        Path workingPath = sourcePath.toAbsolutePath().getParent();
+        if (workingPath == null) {
+            System.err.println("File is apparently not in a directory");
+            return false;
+        }
+        if (runner == null) {
+            runner = new Runner(javaCommand(), workingPath, console);
+        }
+        return runner.run(className, argSplit(argString), classes);
+    }
+
+    /** Command to start a JVM that can load Launcher. */
+    private static List<String> javaCommand() {
+        return List.of(
+            "java",
+            "--enable-preview",
+            "-classpath", launcherClassPath()
+        );
+    }
+
+    /** Our own class path, absolute as launched programs change directory. */
+    private static String launcherClassPath() {
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry :
+            System.getProperty("java.class.path").split(File.pathSeparator)
+        ) {
+            classPath.add(Path.of(entry).toAbsolutePath().toString());
+        }
+        return classPath.toString();
+    }
+
     private static List<String> argSplit(String str) {
         return List.of(str.split(" "));
     }
@@ -512,205 +913,5132 @@ interface Op {
     default Op and(Op then) {
         return () -> run() && then.run();
     }
+    default Op or(Op otherwise) {
+        return () -> run() || otherwise.run();
+    }
+    /** Runs on executor. Completes with success. */
+    default CompletableFuture<Boolean> async(Executor executor) {
+        return CompletableFuture.supplyAsync(this::run, executor);
+    }
 }
 
-class Errors {
-    private final JTextArea edit;
-    private final JPanel errorPane;
-    private final JWindow errorWindow;
-    private boolean isErrorsVisible;
+/**
+ * Runs builds one at a time on a worker thread.
+ * Requesting a build cancels the previous request,
+ *   so builds queued behind it are skipped
+ *   and a compile in progress is abandoned.
+ */
+class Builds {
+    private final ExecutorService worker =
+        Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "LittleBean build");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private AtomicBoolean latest = new AtomicBoolean();
+    private AtomicBoolean background = new AtomicBoolean();
 
-    Errors(Window frame, JTextArea edit) {
-        this.edit = edit;
-        this.errorPane = new PaddedErrors();
-        this.errorWindow = new JWindow(frame);
-        errorWindow.add(new JScrollPane(
-            errorPane,
-            ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
-            ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER
-        ));
-        errorWindow.setSize(200, 300);
-        // Error window visibility tracks frame.
-        frame.addWindowListener(new WindowAdapter() {
-            @Override public void windowOpened(WindowEvent e) {
-                errorWindow.setVisible(isErrorsVisible);
-                errorWindow.toFront();
-            }
-            @Override public void windowClosed(WindowEvent e) {
-                errorWindow.setVisible(false);
-            }
-            @Override public void windowIconified(WindowEvent e) {
-                errorWindow.setVisible(false);
-            }
-            @Override public void windowDeiconified(WindowEvent e) {
-                // !! No "Window" menu to deiconify.
-                errorWindow.setVisible(isErrorsVisible);
-                errorWindow.toFront();
+    /**
+     * Call on AWT. The build function should snapshot any state it needs
+     *   and return an op to run on the worker.
+     * Ops should check cancelled before expensive steps,
+     *   but not before steps that must not be lost, such as saving.
+     */
+    CompletableFuture<Boolean> submit(Function<BooleanSupplier, Op> build) {
+        latest.set(true);
+        background.set(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        latest = cancelled;
+        return start(build, cancelled);
+    }
+
+    /**
+     * As submit, but does not cancel builds.
+     * Cancelled by any later request.
+     */
+    CompletableFuture<Boolean> submitBackground(
+        Function<BooleanSupplier, Op> build
+    ) {
+        background.set(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        background = cancelled;
+        return start(build, cancelled);
+    }
+
+    private CompletableFuture<Boolean> start(
+        Function<BooleanSupplier, Op> build, AtomicBoolean cancelled
+    ) {
+        CompletableFuture<Boolean> result =
+            build.apply(cancelled::get).async(worker);
+        result.whenComplete((success, exc) -> {
+            if (exc != null) {
+                exc.printStackTrace();
             }
         });
-        // Error window tracks frame position.
-        frame.addComponentListener(new ComponentListener() {
-            public void componentResized(ComponentEvent e) {
-                update();
+        return result;
+    }
+}
+
+/**
+ * The source file on disk.
+ * Saves replace the file atomically, and are skipped if nothing changed.
+ * Edits since the last save are appended to a journal beside the file,
+ *   and recovered from it if the editor exits without saving.
+ */
+class SourceFile implements DocumentListener {
+    private static final int MAGIC = 0x4c424a31;
+    private static final byte INSERT = 'i';
+    private static final byte REMOVE = 'r';
+
+    private final Path path;
+    private final Path journalPath;
+    private final ExecutorService journalWorker =
+        Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "LittleBean journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    /** Count of edits. AWT only. */
+    private long version;
+    /** Version known to be on disk, or -1. */
+    private volatile long savedVersion = -1;
+    /** Digest of the file on disk, or null. Build thread only. */
+    private byte[] savedDigest;
+    /** Digest of the text the journal applies to. Journal thread only. */
+    private byte[] baseDigest;
+    /** Edits since the last save, in order. Journal thread only. */
+    private final List<Edit> edits = new ArrayList<>();
+    /** Open for appending, or null if not yet written since a save. */
+    private DataOutputStream journal;
+    private boolean journalFailed;
+
+    SourceFile(Path path) {
+        this.path = path;
+        this.journalPath = path.resolveSibling(
+            "." + path.getFileName() + ".journal"
+        );
+    }
+
+    /** Reads the file, which becomes the saved version. */
+    CharBuffer read() throws IOException {
+        try (FileChannel in = FileChannel.open(path)) {
+            // Decode straight from the mapped file into the document's buffer.
+            MappedByteBuffer bytes =
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            savedDigest = Digests.of(bytes.duplicate());
+            baseDigest = savedDigest;
+            savedVersion = 0;
+            // UTF-8 never has more chars than bytes.
+            CharBuffer text = CharBuffer.allocate(bytes.remaining());
+            CoderResult result = StandardCharsets.UTF_8.newDecoder()
+                .decode(bytes, text, true);
+            if (result.isError()) {
+                result.throwException();
             }
-            public void componentMoved(ComponentEvent e) {
-                update();
+            text.flip();
+            return text;
+        }
+    }
+
+    /** Starts from text for a file that does not exist yet. */
+    CharBuffer create(String text) {
+        baseDigest = Digests.of(StandardCharsets.UTF_8.encode(text));
+        return CharBuffer.wrap(text.toCharArray());
+    }
+
+    /**
+     * Applies any edits journaled, but not saved, by an earlier session.
+     * The journal is kept until the next save.
+     */
+    CharBuffer recover(CharBuffer text) {
+        if (!Files.exists(journalPath)) {
+            return text;
+        }
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(journalPath))
+        )) {
+            byte[] digest = new byte[baseDigest.length];
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal: " + journalPath);
             }
-            public void componentShown(ComponentEvent e) {
-                errorWindow.setVisible(isErrorsVisible);
-                errorWindow.toFront();
+            in.readFully(digest);
+            if (!Arrays.equals(digest, baseDigest)) {
+                System.err.println(
+                    "Ignoring journal for a different " + path +
+                    ": " + journalPath
+                );
+                return text;
             }
-            public void componentHidden(ComponentEvent e) {
-                errorWindow.setVisible(false);
+            StringBuilder recovered = new StringBuilder(text);
+            try {
+                for (;;) {
+                    Edit edit = Edit.read(in);
+                    if (!edit.applyTo(recovered)) {
+                        throw new IOException("Bad edit in " + journalPath);
+                    }
+                    edits.add(edit);
+                }
+            } catch (EOFException exc) {
+                // End of journal, possibly part way through an edit.
             }
-            private void update() {
-                Rectangle rect = frame.getBounds();
-                Insets frameInsets = frame.getInsets();
-                Insets errorInsets = errorWindow.getInsets();
-                // Dimension size = Toolkit.getDefaultToolkit().getScreenSize();
-                int width = 200 + errorInsets.left + errorInsets.right;
-                int overlapWidth = errorInsets.right;
-                int x = rect.x + overlapWidth - width;
-                int topDrop = frameInsets.top - errorInsets.top;
-                errorWindow.setBounds(
-                    Math.min(rect.x - width / 2, Math.max(0, x)),
-                    rect.y + topDrop,
-                    width,
-                    rect.height - topDrop
-                );
-                errorWindow.toFront();
+            if (edits.isEmpty()) {
+                return text;
             }
-        });
+            System.err.println(
+                "Recovered " + edits.size() + " unsaved edits from " +
+                journalPath
+            );
+            savedVersion = -1;
+            char[] cs = new char[recovered.length()];
+            recovered.getChars(0, cs.length, cs, 0);
+            return CharBuffer.wrap(cs);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            edits.clear();
+            return text;
+        }
     }
-    
-    void showErrors() {
-        isErrorsVisible = !isErrorsVisible;
-        errorWindow.setVisible(isErrorsVisible);
-        errorWindow.toFront();
-    };
-    
-    void clear() {
-        errorPane.removeAll();
-        errorPane.revalidate();
+
+    /** Call on AWT. */
+    long version() {
+        return version;
     }
-    
-    void report(Diagnostic<? extends JavaFileObject> diagnostic) {
-        // void report​(Diagnostic<? extends JavaFileObject> diagnostic) {
-        JTextArea component = new JTextArea(
-            diagnostic.getLineNumber() + ": " +
-            diagnostic.getMessage(Locale.getDefault())
-        );
-        component.setLineWrap(true);
-        component.setEditable(false);
-        component.addMouseListener(reportMouseListener(diagnostic));
-        GridBagConstraints errorConstraints = new GridBagConstraints(
-            0, 0, 1, 1,
-            1.0, 0.0,
-            GridBagConstraints.BASELINE, GridBagConstraints.HORIZONTAL,
-            new Insets(0, 0, 0, 0),
-            0, 0
-        );
-
-        errorConstraints.gridy = errorPane.getComponentCount();
-        errorPane.add(component, errorConstraints);
-        errorPane.revalidate();
-        if (!isErrorsVisible) {
-            isErrorsVisible = true;
-            errorWindow.setVisible(isErrorsVisible);
-            errorWindow.toFront();
+
+    boolean isSaved(long version) {
+        return savedVersion == version;
+    }
+
+    /** Writes text as of version, unless the file already has it. */
+    boolean save(String text, long version) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] digest = Digests.of(ByteBuffer.wrap(bytes));
+        if (!Arrays.equals(digest, savedDigest)) {
+            try {
+                write(bytes);
+            } catch (IOException exc) {
+                exc.printStackTrace();
+                return false;
+            }
+            savedDigest = digest;
         }
+        savedVersion = version;
+        journalWorker.execute(() -> rebase(version, digest));
+        return true;
     }
-    private MouseListener reportMouseListener(
-        Diagnostic<? extends JavaFileObject> diagnostic
-    ) {
-        Document editDoc = edit.getDocument();
+
+    /** Writes beside the file, then moves over it. */
+    private void write(byte[] bytes) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve("." + path.getFileName() + ".tmp");
         try {
-            Position start = editDoc.createPosition((int)
-                diagnostic.getStartPosition()
-            );
-            Position end   = editDoc.createPosition((int)
-                diagnostic.getEndPosition()
-            );
-            return new MouseAdapter() {
-                @Override public void mouseClicked(MouseEvent event) {
-                    edit.setSelectionStart(start.getOffset());
-                    edit.setSelectionEnd(  end  .getOffset());
-                    edit.grabFocus();
+            try (FileChannel out = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+            )) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
                 }
-            };
+                out.force(true);
+            }
+            if (Files.exists(path)) {
+                try {
+                    Files.setPosixFilePermissions(
+                        temp, Files.getPosixFilePermissions(path)
+                    );
+                } catch (UnsupportedOperationException exc) {
+                    // Not POSIX.
+                }
+            }
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Replaces atomically where the file system can. */
+    static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(
+                from, to,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+            );
+        } catch (AtomicMoveNotSupportedException exc) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override public void insertUpdate(DocumentEvent event) {
+        int offset = event.getOffset();
+        int length = event.getLength();
+        try {
+            String text = event.getDocument().getText(offset, length);
+            record(new Edit(++version, INSERT, offset, length, text));
         } catch (BadLocationException exc) {
             throw new RuntimeException(exc);
         }
     }
+    @Override public void removeUpdate(DocumentEvent event) {
+        record(new Edit(
+            ++version, REMOVE, event.getOffset(), event.getLength(), null
+        ));
+    }
+    @Override public void changedUpdate(DocumentEvent event) {
+    }
+
+    private void record(Edit edit) {
+        journalWorker.execute(() -> append(edit));
+    }
+
+    private void append(Edit edit) {
+        edits.add(edit);
+        if (journalFailed) {
+            return;
+        }
+        try {
+            if (journal == null) {
+                writeJournal();
+            } else {
+                edit.write(journal);
+                // To the OS, so it survives the process.
+                journal.flush();
+            }
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            journalFailed = true;
+        }
+    }
+
+    /** After a save, keeps only the edits the save did not include. */
+    private void rebase(long version, byte[] digest) {
+        baseDigest = digest;
+        edits.removeIf(edit -> edit.version <= version);
+        journalFailed = false;
+        try {
+            closeJournal();
+            if (edits.isEmpty()) {
+                Files.deleteIfExists(journalPath);
+            } else {
+                writeJournal();
+            }
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            journalFailed = true;
+        }
+    }
+
+    /** Replaces the journal with the base and edits, open for appending. */
+    private void writeJournal() throws IOException {
+        closeJournal();
+        Path temp = journalPath.resolveSibling(
+            journalPath.getFileName() + ".tmp"
+        );
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(temp))
+        )) {
+            out.writeInt(MAGIC);
+            out.write(baseDigest);
+            for (Edit edit : edits) {
+                edit.write(out);
+            }
+        }
+        move(temp, journalPath);
+        journal = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(journalPath, StandardOpenOption.APPEND)
+        ));
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private static class Edit {
+        final long version;
+        final byte type;
+        final int offset;
+        final int length;
+        /** Inserted text, or null. */
+        final String text;
+
+        Edit(long version, byte type, int offset, int length, String text) {
+            this.version = version;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+
+        /** Reads an edit from a recovered journal, which all come first. */
+        static Edit read(DataInput in) throws IOException {
+            byte type = in.readByte();
+            int offset = in.readInt();
+            int length = in.readInt();
+            if (type == INSERT) {
+                StringBuilder text = new StringBuilder();
+                for (int i=0; i<length; ++i) {
+                    text.append(in.readChar());
+                }
+                return new Edit(0, type, offset, length, text.toString());
+            } else if (type == REMOVE) {
+                return new Edit(0, type, offset, length, null);
+            } else {
+                throw new IOException("Bad edit type: " + type);
+            }
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte(type);
+            out.writeInt(offset);
+            out.writeInt(length);
+            if (type == INSERT) {
+                out.writeChars(text);
+            }
+        }
+
+        /** Returns false if the edit does not fit the text. */
+        boolean applyTo(StringBuilder target) {
+            if (offset < 0 || length < 0 || offset > target.length()) {
+                return false;
+            } else if (type == INSERT) {
+                target.insert(offset, text);
+                return true;
+            } else if (offset+length <= target.length()) {
+                target.delete(offset, offset+length);
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
 }
 
 /**
- * Panel for errors Scrollable viewport tracks width. GridBagLayout.
+ * Times the stages of builds, and the javac phases within them.
+ * Each is also committed as a flight recorder event,
+ *   so a recording shows them alongside everything else.
+ * Build thread only, though ops may be created on any thread.
  */
+class Timings {
+    private final StringBuilder summary = new StringBuilder();
+    /** Total nanos by phase for the current stage. */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private boolean inStage;
+    /** Said of the current stage, if anything. */
+    private String note;
+
+    /** Reports a summary of the stages of each build, successful or not. */
+    Function<BooleanSupplier, Op> reported(
+        Function<BooleanSupplier, Op> build, Consumer<String> report
+    ) {
+        return cancelled -> {
+            Op op = build.apply(cancelled);
+            return () -> {
+                summary.setLength(0);
+                try {
+                    return op.run();
+                } finally {
+                    report.accept(summary.toString());
+                }
+            };
+        };
+    }
+
+    Op stage(String name, Op op) {
+        return () -> {
+            StageEvent event = new StageEvent();
+            event.stage = name;
+            event.begin();
+            long start = System.nanoTime();
+            phases.clear();
+            note = null;
+            inStage = true;
+            boolean success = false;
+            try {
+                success = op.run();
+                return success;
+            } finally {
+                inStage = false;
+                event.success = success;
+                event.commit();
+                append(name, System.nanoTime() - start);
+                if (!success) {
+                    summary.append(" failed");
+                }
+                if (note != null) {
+                    summary.append(" (").append(note).append(')');
+                }
+            }
+        };
+    }
+
+    /** Explains the outcome of the current stage, if any. */
+    void note(String note) {
+        if (inStage) {
+            this.note = note;
+        }
+    }
+
+    /** Adds to the time of a phase within the current stage, if any. */
+    void phase(String name, long nanos) {
+        if (inStage) {
+            phases.merge(name, nanos, Long::sum);
+        }
+    }
+
+    private void append(String name, long nanos) {
+        if (summary.length() != 0) {
+            summary.append(", ");
+        }
+        summary.append(name).append(' ').append(millis(nanos));
+        if (!phases.isEmpty()) {
+            summary.append(" [");
+            String separator = "";
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                summary.append(separator)
+                    .append(phase.getKey()).append(' ')
+                    .append(millis(phase.getValue()));
+                separator = ", ";
+            }
+            summary.append(']');
+        }
+    }
+
+    private static String millis(long nanos) {
+        return (nanos + 500_000) / 1_000_000 + "ms";
+    }
+}
+
+@jdk.jfr.Name("littlebean.Stage")
+@jdk.jfr.Label("Build Stage")
+@jdk.jfr.Category("LittleBean")
+class StageEvent extends jdk.jfr.Event {
+    @jdk.jfr.Label("Stage")
+    String stage;
+    @jdk.jfr.Label("Success")
+    boolean success;
+}
+
+@jdk.jfr.Name("littlebean.CompilePhase")
+@jdk.jfr.Label("Compile Phase")
+@jdk.jfr.Category("LittleBean")
+class PhaseEvent extends jdk.jfr.Event {
+    @jdk.jfr.Label("Phase")
+    String phase;
+}
+
+/** Times parse, enter, analyze and generate. */
+class PhaseListener implements TaskListener {
+    private final Timings timings;
+    private final Map<TaskEvent.Kind, PhaseEvent> events =
+        new EnumMap<>(TaskEvent.Kind.class);
+    private final Map<TaskEvent.Kind, Long> starts =
+        new EnumMap<>(TaskEvent.Kind.class);
+    PhaseListener(Timings timings) {
+        this.timings = timings;
+    }
+    @Override public void started(TaskEvent event) {
+        TaskEvent.Kind kind = event.getKind();
+        if (isPhase(kind)) {
+            PhaseEvent phase = new PhaseEvent();
+            phase.phase = name(kind);
+            phase.begin();
+            events.put(kind, phase);
+            starts.put(kind, System.nanoTime());
+        }
+    }
+    @Override public void finished(TaskEvent event) {
+        TaskEvent.Kind kind = event.getKind();
+        PhaseEvent phase = events.remove(kind);
+        if (phase != null) {
+            phase.commit();
+            timings.phase(name(kind), System.nanoTime() - starts.get(kind));
+        }
+    }
+    private static boolean isPhase(TaskEvent.Kind kind) {
+        switch (kind) {
+            case PARSE:
+            case ENTER:
+            case ANALYZE:
+            case GENERATE:
+                return true;
+            default:
+                return false;
+        }
+    }
+    private static String name(TaskEvent.Kind kind) {
+        return kind.name().toLowerCase(Locale.ROOT);
+    }
+}
+
+/** Shows the latest build timings, with earlier builds in the tool tip. */
 @SuppressWarnings("serial")
-class PaddedErrors extends JPanel implements Scrollable {
-    PaddedErrors() {
-        super(new GridBagLayout());
+class StatusLine extends JLabel {
+    private static final int HISTORY = 20;
+    private final Deque<String> history = new ArrayDeque<>();
+    StatusLine() {
+        // Keeps its height while empty.
+        super(" ");
     }
-    
-    public Dimension getPreferredScrollableViewportSize() {
-        return getPreferredSize();
+    /** Call on AWT. */
+    void add(String summary) {
+        setText(summary);
+        history.addFirst(summary);
+        if (history.size() > HISTORY) {
+            history.removeLast();
+        }
+        setToolTipText("<html>" + String.join("<br>", history));
     }
+}
 
-    public int getScrollableUnitIncrement(
-        Rectangle visibleRect, int orientation, int direction
-    ) {
-        return 12; // !!?
+/**
+ * Line numbers beside the editor, as the row header of its scroll pane.
+ * Only visible lines are looked up and painted. Used on AWT.
+ */
+@SuppressWarnings("serial")
+class LineNumbers extends JComponent {
+    private static final int GAP = 4;
+    private final JTextArea edit;
+    private final LineIndex lines;
+    private int digits;
+
+    LineNumbers(JTextArea edit, LineIndex lines) {
+        this.edit = edit;
+        this.lines = lines;
+        setFont(edit.getFont());
+        setForeground(Color.GRAY);
+        digits = digits();
+        edit.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent event) {
+                changed();
+            }
+            @Override public void removeUpdate(DocumentEvent event) {
+                changed();
+            }
+            @Override public void changedUpdate(DocumentEvent event) {
+            }
+        });
+        // Wrapping moves lines when the width changes.
+        edit.addComponentListener(new ComponentAdapter() {
+            @Override public void componentResized(ComponentEvent event) {
+                revalidate();
+                repaint();
+            }
+        });
     }
 
-    public int getScrollableBlockIncrement(
-        Rectangle visibleRect, int orientation, int direction
-    ) {
-        return orientation == SwingConstants.HORIZONTAL ?
-            visibleRect.width :
-            visibleRect.height;
+    private void changed() {
+        int now = digits();
+        if (now != digits) {
+            digits = now;
+            revalidate();
+        }
+        repaint();
     }
 
-    public boolean getScrollableTracksViewportWidth() {
-        return true;
+    private int digits() {
+        return Integer.toString(lines.lineCount()).length();
+    }
+
+    @Override public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return new Dimension(
+            metrics.charWidth('0') * Math.max(3, digits) + 2*GAP,
+            edit.getPreferredSize().height
+        );
     }
 
-    public boolean getScrollableTracksViewportHeight() {
-        return false;
+    @Override protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getForeground());
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        int right = getWidth() - GAP;
+        int bottom = clip.y + clip.height;
+        int count = lines.lineCount();
+        try {
+            int line = lines.line(edit.viewToModel2D(new Point(0, clip.y)));
+            for (; line<count; ++line) {
+                java.awt.geom.Rectangle2D at =
+                    edit.modelToView2D(lines.start(line));
+                if (at == null || at.getY() >= bottom) {
+                    break;
+                }
+                String number = Integer.toString(line+1);
+                g.drawString(
+                    number,
+                    right - metrics.stringWidth(number),
+                    (int)at.getY() + metrics.getAscent()
+                );
+            }
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
     }
 }
-class CharMatcher {
-    private final char[] cs;
-    private int off;
-    private int len;
-    CharMatcher(char[] cs) {
-        this(cs, 0, cs.length);
+
+/** Compiles source without generating classes. */
+interface Check {
+    /** @returns Indicates the check ran to completion. */
+    boolean check(
+        String source,
+        DiagnosticListener<? super JavaFileObject> listener,
+        BooleanSupplier cancelled
+    );
+}
+
+/**
+ * Checks the document in the background once typing pauses,
+ *   replacing the reported diagnostics when done.
+ * Results for text that has since changed are discarded.
+ * A pause during a check is dealt with once the check completes,
+ *   skipping any intermediate text.
+ * Used on AWT.
+ */
+class Checker implements DocumentListener {
+    /** Idle milliseconds before checking. */
+    private static final int delay =
+        Integer.getInteger("littlebean.checkDelay", 500);
+
+    private final Document doc;
+    private final Builds builds;
+    private final Errors errors;
+    private final Check check;
+    private final Timer timer;
+    private int version;
+    private boolean isChecking;
+    private boolean isStale;
+
+    Checker(Document doc, Builds builds, Errors errors, Check check) {
+        this.doc = doc;
+        this.builds = builds;
+        this.errors = errors;
+        this.check = check;
+        this.timer = new Timer(delay, event -> start());
+        timer.setRepeats(false);
+        doc.addDocumentListener(this);
     }
-    CharMatcher(char[] cs, int off, int len) {
-        this.cs = cs;
-        this.off = off;
-        this.len = len;
-    } 
-    boolean hasNext() {
-        return off != len;
+
+    @Override public void insertUpdate(DocumentEvent event) {
+        edited();
     }
-    char next() {
-        return cs[off++];
+    @Override public void removeUpdate(DocumentEvent event) {
+        edited();
     }
-    boolean match(char c) {
-        if (hasNext() && cs[off] == c) {
-            ++off;
-            return true;
-        } else {
-            return false;
+    @Override public void changedUpdate(DocumentEvent event) {
+    }
+
+    private void edited() {
+        ++version;
+        timer.restart();
+    }
+
+    private void start() {
+        if (isChecking) {
+            isStale = true;
+            return;
+        }
+        String source;
+        try {
+            source = doc.getText(0, doc.getLength());
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
         }
+        int checkVersion = version;
+        // Filled on the build thread, read on AWT after completion.
+        List<Diagnostic<? extends JavaFileObject>> diagnostics =
+            new ArrayList<>();
+        isChecking = true;
+        builds.submitBackground(cancelled -> () ->
+            check.check(source, diagnostics::add, cancelled)
+        ).whenCompleteAsync((success, exc) -> {
+            isChecking = false;
+            if (Boolean.TRUE.equals(success) && checkVersion == version) {
+                errors.replace(diagnostics);
+            }
+            if (isStale) {
+                isStale = false;
+                start();
+            }
+        }, EventQueue::invokeLater);
     }
-    boolean matchExcept(char c) {
-        if (hasNext() && cs[off] != c) {
-            ++off;
-            return true;
-        } else {
-            return false;
+}
+
+/**
+ * Compiler and standard file manager kept open between compiles,
+ *   so that archives and package listings are not reopened each time.
+ * Options are fixed for the session, so its caches never go stale.
+ * Not thread safe. Used from the build thread.
+ */
+class CompilerSession {
+    /** Looked up on first use, which loads much of javac. */
+    private JavaCompiler compiler;
+    private final List<String> options;
+    private StandardJavaFileManager standardFileManager;
+
+    CompilerSession(List<String> options) {
+        this.options = List.copyOf(options);
+    }
+
+    /** Fresh output for one compile over the shared file manager. */
+    MemoryFileManager fileManager() {
+        if (standardFileManager == null) {
+            standardFileManager = compiler().getStandardFileManager(
+                null, Locale.UK, StandardCharsets.UTF_8
+            );
+        }
+        return new MemoryFileManager(standardFileManager);
+    }
+
+    JavacTask task(
+        MemoryFileManager fileManager,
+        DiagnosticListener<? super JavaFileObject> listener,
+        Iterable<? extends JavaFileObject> units
+    ) {
+        return (JavacTask)compiler().getTask(
+            null, fileManager, listener, options, null, units
+        );
+    }
+
+    private JavaCompiler compiler() {
+        if (compiler == null) {
+            compiler = ToolProvider.getSystemJavaCompiler();
+        }
+        return compiler;
+    }
+
+    /**
+     * Compiles a trivial unit at low priority, so that javac's classes
+     *   and the platform classes are loaded before the first real compile.
+     */
+    boolean warmUp(BooleanSupplier cancelled) {
+        Thread thread = Thread.currentThread();
+        int priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        try {
+            JavacTask task = task(
+                fileManager(),
+                diagnostic -> {},
+                List.of(new SourceObject(
+                    Path.of("Warm.java"),
+                    "class Warm { int warm(String s) { return s.length(); } }"
+                ))
+            );
+            task.addTaskListener(new CancelListener(cancelled));
+            return task.call();
+        } catch (RuntimeException exc) {
+            if (cancelled.getAsBoolean()) {
+                // Superseded by a real build, which does the loading.
+                return false;
+            }
+            throw exc;
+        } finally {
+            thread.setPriority(priority);
+        }
+    }
+}
+
+/**
+ * Compiles many single-file programs without a window, for lb --check.
+ * Each thread has its own warm CompilerSession, with its own file manager
+ *   and package listings, as javac's file managers are not safe to share
+ *   between concurrent compiles. Only javac's loaded code is shared.
+ * Prints diagnostics as JSON lines, in the order of the files.
+ */
+class BatchCheck {
+    /** @returns Exit status: 0 if all compiled, 1 if not, 2 if unusable. */
+    static int check(List<String> args, List<String> options) {
+        if (args.isEmpty()) {
+            System.err.println("usage: lb --check file-or-directory...");
+            return 2;
+        }
+        List<Path> files = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                Path path = Path.of(arg);
+                if (Files.isDirectory(path)) {
+                    try (java.util.stream.Stream<Path> walk =
+                        Files.walk(path)
+                    ) {
+                        walk.filter(file ->
+                            file.getFileName().toString().endsWith(".java") &&
+                            Files.isRegularFile(file)
+                        ).sorted().forEach(files::add);
+                    }
+                } else {
+                    files.add(path);
+                }
+            }
+        } catch (IOException | UncheckedIOException exc) {
+            exc.printStackTrace();
+            return 2;
+        }
+
+        long start = System.nanoTime();
+        int threads = Integer.getInteger(
+            "littlebean.checkThreads",
+            Runtime.getRuntime().availableProcessors()
+        );
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "LittleBean check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadLocal<CompilerSession> sessions =
+            ThreadLocal.withInitial(() -> new CompilerSession(options));
+        List<CompletableFuture<Result>> results = new ArrayList<>();
+        for (Path file : files) {
+            results.add(CompletableFuture.supplyAsync(
+                () -> check(sessions.get(), file), pool
+            ));
+        }
+        // Output is written in one go, as lines from a big corpus add up.
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)),
+            false
+        );
+        int failed = 0;
+        for (CompletableFuture<Result> future : results) {
+            Result result = future.join();
+            out.print(result.lines);
+            if (!result.success) {
+                ++failed;
+            }
+        }
+        out.flush();
+        pool.shutdown();
+        System.err.println(
+            "checked " + files.size() + " files in " +
+            (System.nanoTime() - start) / 1_000_000 + "ms, " +
+            failed + " failed"
+        );
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static class Result {
+        final boolean success;
+        /** Diagnostics as JSON lines. */
+        final String lines;
+        Result(boolean success, String lines) {
+            this.success = success;
+            this.lines = lines;
+        }
+    }
+
+    /** Compiles one file, without generating classes. */
+    private static Result check(CompilerSession session, Path file) {
+        StringBuilder lines = new StringBuilder();
+        boolean[] failed = { false };
+        boolean success;
+        try {
+            String source = Files.readString(file);
+            session.task(
+                session.fileManager(),
+                diagnostic -> {
+                    failed[0] |= diagnostic.getKind() == Diagnostic.Kind.ERROR;
+                    line(
+                        lines,
+                        file,
+                        diagnostic.getKind().name(),
+                        diagnostic.getLineNumber(),
+                        diagnostic.getColumnNumber(),
+                        diagnostic.getCode(),
+                        diagnostic.getMessage(Locale.getDefault())
+                    );
+                },
+                List.of(new SourceObject(file, source))
+            ).analyze();
+            success = !failed[0];
+        } catch (IOException | RuntimeException exc) {
+            line(lines, file, "ERROR", -1, -1, null, exc.toString());
+            success = false;
+        }
+        return new Result(success, lines.toString());
+    }
+
+    private static void line(
+        StringBuilder lines,
+        Path file,
+        String kind,
+        long line,
+        long column,
+        String code,
+        String message
+    ) {
+        lines.append("{\"file\":").append(json(file.toString()))
+            .append(",\"kind\":").append(json(kind))
+            .append(",\"line\":").append(line)
+            .append(",\"column\":").append(column)
+            .append(",\"code\":").append(code == null ? "null" : json(code))
+            .append(",\"message\":").append(json(message))
+            .append("}\n");
+    }
+
+    private static String json(String string) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int)c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
+
+/** Source text held in memory, named after its file. */
+class SourceObject extends SimpleJavaFileObject {
+    private final String source;
+    SourceObject(Path path, String source) {
+        super(path.toAbsolutePath().toUri(), Kind.SOURCE);
+        this.source = source;
+    }
+    @Override public CharSequence getCharContent(
+        boolean ignoreEncodingErrors
+    ) {
+        return source;
+    }
+}
+
+/** Keeps compiled classes in memory rather than writing class files. */
+class MemoryFileManager
+    extends ForwardingJavaFileManager<StandardJavaFileManager>
+{
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    /** Source each class was compiled from, by binary name. */
+    private final Map<String, URI> origins = new HashMap<>();
+    /** Earlier output on the class path, by package. */
+    private final Map<String, List<JavaFileObject>> classPath =
+        new HashMap<>();
+
+    MemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /** Class file bytes by binary name. */
+    Map<String, byte[]> classes() {
+        return classes;
+    }
+
+    /** URI of the source of an output class, if known. */
+    URI origin(String className) {
+        return origins.get(className);
+    }
+
+    /** A source file, read as compiled. */
+    JavaFileObject source(Path file) {
+        return fileManager.getJavaFileObjects(file).iterator().next();
+    }
+
+    /** Makes classes available to compiled sources, ahead of the rest. */
+    void addClassPath(Map<String, byte[]> classes) {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            int dot = name.lastIndexOf('.');
+            String packageName = dot == -1 ? "" : name.substring(0, dot);
+            classPath.computeIfAbsent(packageName, key -> new ArrayList<>())
+                .add(new MemoryClass(name, entry.getValue()));
+        }
+    }
+
+    @Override public Iterable<JavaFileObject> list(
+        Location location,
+        String packageName,
+        Set<JavaFileObject.Kind> kinds,
+        boolean recurse
+    ) throws IOException {
+        Iterable<JavaFileObject> listed =
+            super.list(location, packageName, kinds, recurse);
+        if (
+            location != StandardLocation.CLASS_PATH ||
+            !kinds.contains(JavaFileObject.Kind.CLASS) ||
+            classPath.isEmpty()
+        ) {
+            return listed;
+        }
+        List<JavaFileObject> files = new ArrayList<>();
+        for (Map.Entry<String, List<JavaFileObject>> entry :
+            classPath.entrySet()
+        ) {
+            String name = entry.getKey();
+            if (
+                name.equals(packageName) ||
+                (recurse && name.startsWith(packageName + "."))
+            ) {
+                files.addAll(entry.getValue());
+            }
+        }
+        for (JavaFileObject file : listed) {
+            files.add(file);
+        }
+        return files;
+    }
+
+    @Override public String inferBinaryName(
+        Location location, JavaFileObject file
+    ) {
+        return file instanceof MemoryClass ?
+            ((MemoryClass)file).binaryName :
+            super.inferBinaryName(location, file);
+    }
+
+    /** Leaves the shared file manager open. */
+    @Override public void close() throws IOException {
+        flush();
+    }
+
+    @Override public JavaFileObject getJavaFileForOutput(
+        Location location,
+        String className,
+        JavaFileObject.Kind kind,
+        FileObject sibling
+    ) throws IOException {
+        if (kind != JavaFileObject.Kind.CLASS) {
+            return super.getJavaFileForOutput(
+                location, className, kind, sibling
+            );
+        }
+        if (sibling != null) {
+            origins.put(className, sibling.toUri());
+        }
+        URI uri = URI.create(
+            "memory:///"+className.replace('.', '/')+kind.extension
+        );
+        return new SimpleJavaFileObject(uri, kind) {
+            @Override public OutputStream openOutputStream() {
+                return new ByteArrayOutputStream() {
+                    @Override public void close() {
+                        classes.put(className, toByteArray());
+                    }
+                };
+            }
+        };
+    }
+}
+
+/** Class file held in memory. */
+class MemoryClass extends SimpleJavaFileObject {
+    final String binaryName;
+    private final byte[] bytes;
+    MemoryClass(String binaryName, byte[] bytes) {
+        super(
+            URI.create("memory:///"+binaryName.replace('.', '/')+".class"),
+            Kind.CLASS
+        );
+        this.binaryName = binaryName;
+        this.bytes = bytes;
+    }
+    @Override public InputStream openInputStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+}
+
+/**
+ * Incremental compilation of every source in a directory.
+ * Keeps each file's digest, the classes compiled from it, the top level
+ *   classes it refers to (found by javac), and its diagnostics.
+ * A build compiles changed files, and those that refer to their classes,
+ *   transitively. The classes of the rest are given to javac from memory,
+ *   and their diagnostics repeated.
+ * Build thread only.
+ */
+class DirectoryBuild {
+    private final Path directory;
+    /** By absolute path. */
+    private final Map<Path, Unit> units = new HashMap<>();
+
+    private static class Unit {
+        final byte[] digest;
+        /** Compiled from the file, by binary name. */
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        /** Top level classes the file refers to, by binary name. */
+        final Set<String> references = new HashSet<>();
+        final List<Diagnostic<? extends JavaFileObject>> diagnostics =
+            new ArrayList<>();
+        Unit(byte[] digest) {
+            this.digest = digest;
+        }
+    }
+
+    DirectoryBuild(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Builds with the edited file's text in place of its saved contents.
+     * @returns Classes from every file, or null if compilation failed.
+     */
+    Map<String, byte[]> build(
+        Path edited,
+        String source,
+        DiagnosticListener<? super JavaFileObject> listener,
+        MemoryFileManager fileManager,
+        BiFunction<
+            List<JavaFileObject>,
+            DiagnosticListener<? super JavaFileObject>,
+            JavacTask
+        > compileTask
+    ) throws IOException {
+        Path editedFile = edited.toAbsolutePath().normalize();
+        Map<Path, byte[]> digests = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files =
+            Files.newDirectoryStream(directory, "*.java")
+        ) {
+            for (Path file : files) {
+                if (!file.equals(editedFile) && Files.isRegularFile(file)) {
+                    digests.put(file, Digests.of(Files.readAllBytes(file)));
+                }
+            }
+        }
+        digests.put(
+            editedFile, Digests.of(source.getBytes(StandardCharsets.UTF_8))
+        );
+
+        // A new file may define classes that the rest found elsewhere,
+        //   so everything is compiled.
+        boolean added = !units.keySet().containsAll(digests.keySet());
+        Set<Path> dirty = new LinkedHashSet<>();
+        Set<String> changed = new HashSet<>();
+        for (Path file : digests.keySet()) {
+            Unit unit = units.get(file);
+            if (added || unit == null || !Arrays.equals(
+                unit.digest, digests.get(file)
+            )) {
+                dirty.add(file);
+            }
+        }
+        for (Map.Entry<Path, Unit> entry : units.entrySet()) {
+            if (!digests.containsKey(entry.getKey())) {
+                // Removed.
+                changed.addAll(entry.getValue().classes.keySet());
+            } else if (dirty.contains(entry.getKey())) {
+                changed.addAll(entry.getValue().classes.keySet());
+            }
+        }
+        boolean grew;
+        do {
+            grew = false;
+            for (Map.Entry<Path, Unit> entry : units.entrySet()) {
+                Path file = entry.getKey();
+                Unit unit = entry.getValue();
+                if (
+                    digests.containsKey(file) &&
+                    !dirty.contains(file) &&
+                    !Collections.disjoint(unit.references, changed)
+                ) {
+                    dirty.add(file);
+                    changed.addAll(unit.classes.keySet());
+                    grew = true;
+                }
+            }
+        } while (grew);
+
+        for (Map.Entry<Path, Unit> entry : units.entrySet()) {
+            if (
+                digests.containsKey(entry.getKey()) &&
+                !dirty.contains(entry.getKey())
+            ) {
+                Unit unit = entry.getValue();
+                fileManager.addClassPath(unit.classes);
+                for (Diagnostic<? extends JavaFileObject> diagnostic :
+                    unit.diagnostics
+                ) {
+                    listener.report(diagnostic);
+                }
+            }
+        }
+        Map<Path, Unit> built = new HashMap<>();
+        for (Path file : dirty) {
+            built.put(file, new Unit(digests.get(file)));
+        }
+        if (!dirty.isEmpty()) {
+            List<JavaFileObject> sources = new ArrayList<>();
+            for (Path file : dirty) {
+                sources.add(
+                    file.equals(editedFile) ?
+                        new SourceObject(edited, source) :
+                        fileManager.source(file)
+                );
+            }
+            DiagnosticListener<JavaFileObject> recorder = diagnostic -> {
+                listener.report(diagnostic);
+                Unit unit = built.get(fileOf(diagnostic.getSource()));
+                if (unit != null) {
+                    unit.diagnostics.add(new RecordedDiagnostic(diagnostic));
+                }
+            };
+            JavacTask task = compileTask.apply(sources, recorder);
+            ReferenceListener references = new ReferenceListener(task);
+            task.addTaskListener(references);
+            if (!task.call()) {
+                // Dirty files stay dirty.
+                return null;
+            }
+            for (Map.Entry<Path, Unit> entry : built.entrySet()) {
+                entry.getValue().references.addAll(
+                    references.references(entry.getKey())
+                );
+            }
+            for (Map.Entry<String, byte[]> entry :
+                fileManager.classes().entrySet()
+            ) {
+                URI origin = fileManager.origin(entry.getKey());
+                Unit unit = origin == null ? null : built.get(
+                    Path.of(origin).normalize()
+                );
+                if (unit != null) {
+                    unit.classes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        units.keySet().retainAll(digests.keySet());
+        units.putAll(built);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Unit unit : units.values()) {
+            classes.putAll(unit.classes);
+        }
+        return classes;
+    }
+
+    private static Path fileOf(JavaFileObject file) {
+        return file == null ? null : Path.of(file.toUri()).normalize();
+    }
+}
+
+/** Collects the top level classes each compiled file refers to. */
+class ReferenceListener implements TaskListener {
+    private final Trees trees;
+    private final javax.lang.model.util.Elements elements;
+    private final Map<Path, Set<String>> references = new HashMap<>();
+
+    ReferenceListener(JavacTask task) {
+        this.trees = Trees.instance(task);
+        this.elements = task.getElements();
+    }
+
+    /** Binary names referred to by file. */
+    Set<String> references(Path file) {
+        return references.getOrDefault(file, Set.of());
+    }
+
+    @Override public void finished(TaskEvent event) {
+        if (
+            event.getKind() != TaskEvent.Kind.ANALYZE ||
+            event.getTypeElement() == null
+        ) {
+            return;
+        }
+        TreePath path = trees.getPath(event.getTypeElement());
+        if (path == null) {
+            return;
+        }
+        Set<String> found = references.computeIfAbsent(
+            Path.of(event.getSourceFile().toUri()).normalize(),
+            file -> new HashSet<>()
+        );
+        new TreePathScanner<Void, Void>() {
+            @Override public Void visitIdentifier(
+                IdentifierTree tree, Void unused
+            ) {
+                add();
+                return super.visitIdentifier(tree, unused);
+            }
+            @Override public Void visitMemberSelect(
+                MemberSelectTree tree, Void unused
+            ) {
+                add();
+                return super.visitMemberSelect(tree, unused);
+            }
+            /** The element named, and the type of the expression. */
+            private void add() {
+                TreePath current = getCurrentPath();
+                addTopLevel(found, trees.getElement(current));
+                javax.lang.model.type.TypeMirror type =
+                    trees.getTypeMirror(current);
+                if (type instanceof javax.lang.model.type.DeclaredType) {
+                    addTopLevel(
+                        found,
+                        ((javax.lang.model.type.DeclaredType)type).asElement()
+                    );
+                }
+            }
+        }.scan(path, null);
+    }
+
+    private void addTopLevel(
+        Set<String> found, javax.lang.model.element.Element element
+    ) {
+        javax.lang.model.element.TypeElement top = null;
+        for (
+            javax.lang.model.element.Element enclosing = element;
+            enclosing != null;
+            enclosing = enclosing.getEnclosingElement()
+        ) {
+            javax.lang.model.element.ElementKind kind = enclosing.getKind();
+            if (kind.isClass() || kind.isInterface()) {
+                top = (javax.lang.model.element.TypeElement)enclosing;
+            }
+        }
+        if (top != null) {
+            found.add(elements.getBinaryName(top).toString());
+        }
+    }
+}
+
+/** A diagnostic kept apart from the compiler that reported it. */
+class RecordedDiagnostic implements Diagnostic<JavaFileObject> {
+    private final Kind kind;
+    private final JavaFileObject source;
+    private final long position;
+    private final long startPosition;
+    private final long endPosition;
+    private final long lineNumber;
+    private final long columnNumber;
+    private final String code;
+    private final String message;
+
+    RecordedDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
+        this(
+            diagnostic.getKind(),
+            diagnostic.getSource(),
+            diagnostic.getPosition(),
+            diagnostic.getStartPosition(),
+            diagnostic.getEndPosition(),
+            diagnostic.getLineNumber(),
+            diagnostic.getColumnNumber(),
+            diagnostic.getCode(),
+            diagnostic.getMessage(Locale.getDefault())
+        );
+    }
+
+    RecordedDiagnostic(
+        Kind kind,
+        JavaFileObject source,
+        long position,
+        long startPosition,
+        long endPosition,
+        long lineNumber,
+        long columnNumber,
+        String code,
+        String message
+    ) {
+        this.kind = kind;
+        this.source = source;
+        this.position = position;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.code = code;
+        this.message = message;
+    }
+
+    @Override public Kind getKind() {
+        return kind;
+    }
+    @Override public JavaFileObject getSource() {
+        return source;
+    }
+    @Override public long getPosition() {
+        return position;
+    }
+    @Override public long getStartPosition() {
+        return startPosition;
+    }
+    @Override public long getEndPosition() {
+        return endPosition;
+    }
+    @Override public long getLineNumber() {
+        return lineNumber;
+    }
+    @Override public long getColumnNumber() {
+        return columnNumber;
+    }
+    @Override public String getCode() {
+        return code;
+    }
+    /** In the default locale, whichever is asked for. */
+    @Override public String getMessage(Locale locale) {
+        return message;
+    }
+}
+
+/** SHA-256, for file contents, cache keys and archive names. */
+class Digests {
+    private Digests() {
+    }
+
+    static byte[] of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    static byte[] of(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException exc) {
+            throw new Error(exc);
+        }
+    }
+
+    /** Digest in hex of the parts, each followed by a zero byte. */
+    static String key(List<String> parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+            return hex(digest.digest());
+        } catch (NoSuchAlgorithmException exc) {
+            throw new Error(exc);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
+
+/**
+ * Classes and diagnostics of successful compiles, kept on disk by digest of
+ *   the file name, source, compiler options and JDK.
+ * Least recently used entries are removed beyond the budget.
+ * Failures only cost a compile, so are printed and otherwise ignored.
+ */
+class BuildCache {
+    private static final int MAGIC = 0x4c424331;
+    private final Path directory;
+    /** Bytes, or zero for no cache. */
+    private final long budget;
+
+    BuildCache(Path directory, long budget) {
+        this.directory = directory;
+        this.budget = budget;
+    }
+
+    String key(Path file, String source, List<String> options) {
+        return Digests.key(List.of(
+            System.getProperty("java.home"),
+            System.getProperty("java.runtime.version"),
+            String.join("\0", options),
+            file.getFileName().toString(),
+            source
+        ));
+    }
+
+    /**
+     * Reports the diagnostics of a cached compile against the source.
+     * @returns Classes by binary name, or null if not cached.
+     */
+    Map<String, byte[]> replay(
+        String key,
+        JavaFileObject source,
+        DiagnosticListener<? super JavaFileObject> listener
+    ) {
+        if (budget <= 0) {
+            return null;
+        }
+        Path file = directory.resolve(key);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        List<Diagnostic<JavaFileObject>> diagnostics = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file))
+        )) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            for (int classNum=in.readInt(); classNum>0; --classNum) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            for (int diagNum=in.readInt(); diagNum>0; --diagNum) {
+                diagnostics.add(new RecordedDiagnostic(
+                    Diagnostic.Kind.valueOf(in.readUTF()),
+                    in.readBoolean() ? source : null,
+                    in.readLong(),
+                    in.readLong(),
+                    in.readLong(),
+                    in.readLong(),
+                    in.readLong(),
+                    in.readBoolean() ? in.readUTF() : null,
+                    readString(in)
+                ));
+            }
+        } catch (NoSuchFileException exc) {
+            return null;
+        } catch (IOException | IllegalArgumentException exc) {
+            // Corrupt entries are replaced by the next compile.
+            exc.printStackTrace();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(
+                file, FileTime.fromMillis(System.currentTimeMillis())
+            );
+        } catch (IOException exc) {
+            // Shrug.
+        }
+        for (Diagnostic<JavaFileObject> diagnostic : diagnostics) {
+            listener.report(diagnostic);
+        }
+        return classes;
+    }
+
+    void store(
+        String key,
+        Map<String, byte[]> classes,
+        List<? extends Diagnostic<? extends JavaFileObject>> diagnostics
+    ) {
+        if (budget <= 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp))
+            )) {
+                out.writeInt(MAGIC);
+                out.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+                out.writeInt(diagnostics.size());
+                for (Diagnostic<? extends JavaFileObject> diagnostic :
+                    diagnostics
+                ) {
+                    out.writeUTF(diagnostic.getKind().name());
+                    out.writeBoolean(diagnostic.getSource() != null);
+                    out.writeLong(diagnostic.getPosition());
+                    out.writeLong(diagnostic.getStartPosition());
+                    out.writeLong(diagnostic.getEndPosition());
+                    out.writeLong(diagnostic.getLineNumber());
+                    out.writeLong(diagnostic.getColumnNumber());
+                    String code = diagnostic.getCode();
+                    out.writeBoolean(code != null);
+                    if (code != null) {
+                        out.writeUTF(code);
+                    }
+                    writeString(
+                        out, diagnostic.getMessage(Locale.getDefault())
+                    );
+                }
+            } catch (IOException exc) {
+                Files.deleteIfExists(temp);
+                throw exc;
+            }
+            SourceFile.move(temp, directory.resolve(key));
+            trim();
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    /** Removes least recently used entries until within budget. */
+    private void trim() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries =
+            Files.newDirectoryStream(directory)
+        ) {
+            for (Path file : entries) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs =
+                        Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException exc) {
+                    // Removed by another instance.
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    // Class archives.
+                    continue;
+                }
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    // Being stored, possibly by another instance.
+                    continue;
+                }
+                files.add(file);
+                attributes.put(file, attrs);
+                total += attrs.size();
+            }
+        }
+        if (total <= budget) {
+            return;
+        }
+        files.sort(Comparator.comparing(
+            file -> attributes.get(file).lastModifiedTime()
+        ));
+        for (Path file : files) {
+            if (total <= budget) {
+                break;
+            }
+            Files.deleteIfExists(file);
+            total -= attributes.get(file).size();
+        }
+    }
+
+    /** Unlike writeUTF, not limited to 64K. */
+    private static void writeString(
+        DataOutputStream out, String string
+    ) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * Dynamic class data sharing archives, so JVMs start with classes loaded.
+ * Classes are only archived from jar files, and a non-empty directory on
+ *   the class path stops the dump, so programs load Launcher from a jar
+ *   written here. Programs' own classes are defined from memory, so what is
+ *   archived for them is the JDK and Launcher classes they use.
+ * A program's archive, by source directory and class name, is dumped at exit
+ *   by its first run after its classes change. The editor's is dumped by a
+ *   training run in the background, for its next start from jar files.
+ * The JVM replaces archives rather than writing over them, so those in use
+ *   are unaffected. Failures only cost class loading, so are printed and
+ *   otherwise ignored.
+ */
+class ClassArchives {
+    /** For the editor's -XX:SharedArchiveFile. Not a Java name. */
+    private static final String editorName = "little-bean";
+    /** Classes Launcher needs. */
+    private static final List<Class<?>> launcherClasses = List.of(
+        Launcher.class, MemoryClassLoader.class, FrameOutputStream.class
+    );
+    /** Keeps program output clear of archive warnings. */
+    private static final String quiet = "-Xlog:cds=off,cds+dynamic=off";
+
+    private final Path directory;
+    private final boolean enabled;
+    private Path launcherJar;
+
+    /** A JVM command line, and what to do once it exits. */
+    static class Command {
+        final List<String> args;
+        final Runnable exited;
+        /** Dumps the archive at exit, rather than sharing it. */
+        final boolean dumps;
+        Command(List<String> args, Runnable exited, boolean dumps) {
+            this.args = args;
+            this.exited = exited;
+            this.dumps = dumps;
+        }
+    }
+
+    ClassArchives(Path directory, boolean enabled) {
+        this.directory = directory;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Command to start a JVM that can load Launcher, up to the main class,
+     *   sharing or dumping the program's archive.
+     * Directory mode programs are all Code, so the name includes a hash of
+     *   the directory, so that projects don't replace each other's archives.
+     * @returns null if archives are not in use.
+     */
+    Command program(
+        Path sourcePath,
+        String className,
+        Map<String, byte[]> classes
+    ) {
+        if (!enabled) {
+            return null;
+        }
+        Path jar;
+        try {
+            jar = launcherJar();
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return null;
+        }
+        String archiveName = className + "-" + Digests.key(List.of(
+            sourcePath.toAbsolutePath().getParent().toString()
+        )).substring(0, 16);
+        Path archive = directory.resolve(archiveName + ".jsa");
+        Path keyFile = directory.resolve(archiveName + ".key");
+        List<String> parts = new ArrayList<>(List.of(
+            System.getProperty("java.home"),
+            System.getProperty("java.runtime.version"),
+            jar.toString()
+        ));
+        for (String name : new TreeSet<>(classes.keySet())) {
+            parts.add(name);
+            parts.add(Base64.getEncoder().encodeToString(classes.get(name)));
+        }
+        String key = Digests.key(parts);
+        List<String> args = new ArrayList<>(List.of(
+            "java", "--enable-preview", quiet
+        ));
+        Runnable exited;
+        boolean dumps =
+            !(key.equals(readKey(keyFile)) && Files.isRegularFile(archive));
+        if (!dumps) {
+            args.add("-XX:SharedArchiveFile=" + archive);
+            exited = () -> {};
+        } else {
+            args.add("-XX:ArchiveClassesAtExit=" + archive);
+            exited = () -> writeKey(keyFile, archive, key);
+            // So an archive is only there if dumped, and only current once
+            //   the key is written.
+            try {
+                Files.deleteIfExists(keyFile);
+                Files.deleteIfExists(archive);
+            } catch (IOException exc) {
+                exc.printStackTrace();
+                return null;
+            }
+        }
+        args.add("-classpath");
+        args.add(jar.toString());
+        return new Command(args, exited, dumps);
+    }
+
+    /**
+     * Dumps a new archive for the editor in the background, if it was
+     *   started from jar files and its archive is out of date.
+     */
+    void refreshEditor() {
+        if (!enabled) {
+            return;
+        }
+        String classPath = System.getProperty("java.class.path");
+        List<String> parts = new ArrayList<>(List.of(
+            System.getProperty("java.home"),
+            System.getProperty("java.runtime.version"),
+            classPath
+        ));
+        try {
+            for (String entry : classPath.split(File.pathSeparator)) {
+                Path file = Path.of(entry);
+                if (!entry.endsWith(".jar") || !Files.isRegularFile(file)) {
+                    return;
+                }
+                parts.add(Long.toString(Files.size(file)));
+                parts.add(Files.getLastModifiedTime(file).toString());
+            }
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return;
+        }
+        String key = Digests.key(parts);
+        Path archive = directory.resolve(editorName + ".jsa");
+        Path keyFile = directory.resolve(editorName + ".key");
+        if (key.equals(readKey(keyFile)) && Files.isRegularFile(archive)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            Path scratch = null;
+            try {
+                Files.createDirectories(directory);
+                Files.deleteIfExists(keyFile);
+                Files.deleteIfExists(archive);
+                scratch = Files.createTempDirectory(directory, editorName);
+                Process process = new ProcessBuilder(
+                    Path.of(
+                        System.getProperty("java.home"), "bin", "java"
+                    ).toString(),
+                    "--enable-preview",
+                    quiet,
+                    "-XX:ArchiveClassesAtExit=" + archive,
+                    // Compiles for the archive, not from the cache.
+                    "-Dlittlebean.cacheBytes=0",
+                    "-Dlittlebean.cds=false",
+                    "-classpath", classPath,
+                    LittleBean.class.getName(),
+                    "--train", scratch.toString()
+                )
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                if (process.waitFor() == 0) {
+                    writeKey(keyFile, archive, key);
+                }
+            } catch (IOException | InterruptedException exc) {
+                exc.printStackTrace();
+            } finally {
+                if (scratch != null) {
+                    delete(scratch);
+                }
+            }
+        }, "LittleBean archive");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /** Launcher's classes, in a jar named by its content. */
+    private synchronized Path launcherJar() throws IOException {
+        if (launcherJar != null) {
+            return launcherJar;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (java.util.jar.JarOutputStream out =
+            new java.util.jar.JarOutputStream(bytes)
+        ) {
+            for (Class<?> type : launcherClasses) {
+                String name = type.getName().replace('.', '/') + ".class";
+                java.util.zip.ZipEntry entry = new java.util.zip.ZipEntry(name);
+                // Same classes, same jar.
+                entry.setTime(0);
+                out.putNextEntry(entry);
+                try (InputStream in =
+                    type.getClassLoader().getResourceAsStream(name)
+                ) {
+                    if (in == null) {
+                        throw new FileNotFoundException(name);
+                    }
+                    in.transferTo(out);
+                }
+            }
+        }
+        byte[] jar = bytes.toByteArray();
+        String hash = Digests.hex(Digests.of(jar)).substring(0, 16);
+        Path file = directory.resolve("launcher-" + hash + ".jar");
+        if (!Files.isRegularFile(file)) {
+            // Never written over, as archives check its time and size.
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "launcher", ".tmp");
+            Files.write(temp, jar);
+            SourceFile.move(temp, file);
+        }
+        launcherJar = file;
+        return file;
+    }
+
+    private static String readKey(Path keyFile) {
+        try {
+            return Files.readString(keyFile);
+        } catch (IOException exc) {
+            return null;
+        }
+    }
+
+    /** Marks the archive as current, if it was dumped. */
+    private static void writeKey(Path keyFile, Path archive, String key) {
+        try {
+            if (Files.isRegularFile(archive)) {
+                Files.writeString(keyFile, key);
+            }
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+
+    private static void delete(Path directory) {
+        try (DirectoryStream<Path> files =
+            Files.newDirectoryStream(directory)
+        ) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException exc) {
+            exc.printStackTrace();
+        }
+    }
+}
+
+/** Abandons compilation by throwing from javac progress events. */
+class CancelListener implements TaskListener {
+    private final BooleanSupplier cancelled;
+    CancelListener(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+    @Override public void started(TaskEvent event) {
+        check();
+    }
+    @Override public void finished(TaskEvent event) {
+        check();
+    }
+    private void check() {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+}
+
+class Errors {
+    private final Window frame;
+    private final JTextArea edit;
+    private final LineIndex lines;
+    private final ReportModel model = new ReportModel();
+    /** Created when first shown, so as not to delay opening the editor. */
+    private JWindow errorWindow;
+    private boolean isErrorsVisible;
+
+    Errors(Window frame, JTextArea edit, LineIndex lines) {
+        this.frame = frame;
+        this.edit = edit;
+        this.lines = lines;
+    }
+
+    private JWindow errorWindow() {
+        if (errorWindow != null) {
+            return errorWindow;
+        }
+        errorWindow = new JWindow(frame);
+        ReportList list = new ReportList(model);
+        list.addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent event) {
+                int index = list.locationToIndex(event.getPoint());
+                if (
+                    index != -1 &&
+                    list.getCellBounds(index, index).contains(event.getPoint())
+                ) {
+                    select(model.getElementAt(index));
+                }
+            }
+        });
+        JPanel filters = new JPanel(new GridLayout(1, 0));
+        filter(filters, "Error", Diagnostic.Kind.ERROR);
+        filter(
+            filters, "Warn",
+            Diagnostic.Kind.WARNING, Diagnostic.Kind.MANDATORY_WARNING
+        );
+        filter(filters, "Note", Diagnostic.Kind.NOTE, Diagnostic.Kind.OTHER);
+        errorWindow.add(filters, BorderLayout.NORTH);
+        errorWindow.add(new JScrollPane(
+            list,
+            ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
+            ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER
+        ));
+        errorWindow.setSize(200, 300);
+        // Error window visibility tracks frame.
+        frame.addWindowListener(new WindowAdapter() {
+            @Override public void windowOpened(WindowEvent e) {
+                setErrorsVisible(isErrorsVisible);
+            }
+            @Override public void windowClosed(WindowEvent e) {
+                errorWindow.setVisible(false);
+            }
+            @Override public void windowIconified(WindowEvent e) {
+                errorWindow.setVisible(false);
+            }
+            @Override public void windowDeiconified(WindowEvent e) {
+                // !! No "Window" menu to deiconify.
+                setErrorsVisible(isErrorsVisible);
+            }
+        });
+        // Error window tracks frame position.
+        frame.addComponentListener(new ComponentListener() {
+            public void componentResized(ComponentEvent e) {
+                place();
+            }
+            public void componentMoved(ComponentEvent e) {
+                place();
+            }
+            public void componentShown(ComponentEvent e) {
+                setErrorsVisible(isErrorsVisible);
+            }
+            public void componentHidden(ComponentEvent e) {
+                errorWindow.setVisible(false);
+            }
+        });
+        place();
+        return errorWindow;
+    }
+
+    private void place() {
+        Rectangle rect = frame.getBounds();
+        Insets frameInsets = frame.getInsets();
+        Insets errorInsets = errorWindow.getInsets();
+        // Dimension size = Toolkit.getDefaultToolkit().getScreenSize();
+        int width = 200 + errorInsets.left + errorInsets.right;
+        int overlapWidth = errorInsets.right;
+        int x = rect.x + overlapWidth - width;
+        int topDrop = frameInsets.top - errorInsets.top;
+        errorWindow.setBounds(
+            Math.min(rect.x - width / 2, Math.max(0, x)),
+            rect.y + topDrop,
+            width,
+            rect.height - topDrop
+        );
+        errorWindow.toFront();
+    }
+
+    private void setErrorsVisible(boolean visible) {
+        isErrorsVisible = visible;
+        if (visible || errorWindow != null) {
+            errorWindow().setVisible(visible);
+            errorWindow.toFront();
+        }
+    }
+    
+    void showErrors() {
+        setErrorsVisible(!isErrorsVisible);
+    };
+    
+    private void filter(
+        JPanel filters, String name, Diagnostic.Kind... kinds
+    ) {
+        JCheckBox box = new JCheckBox(name, true);
+        box.addActionListener(event -> {
+            model.setShown(List.of(kinds), box.isSelected());
+        });
+        filters.add(box);
+    }
+    
+    void clear() {
+        model.clear();
+    }
+    
+    /** Replaces all diagnostics, without showing the pane. */
+    void replace(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        model.clear();
+        model.addAll(reports(diagnostics));
+    }
+    
+    /** Replaces all diagnostics, showing the pane if there are any. */
+    void report(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        replace(diagnostics);
+        if (!diagnostics.isEmpty() && !isErrorsVisible) {
+            setErrorsVisible(true);
+        }
+    }
+
+    private List<Report> reports(
+        List<Diagnostic<? extends JavaFileObject>> diagnostics
+    ) {
+        Document editDoc = edit.getDocument();
+        // Document may have been edited since the compile started.
+        int length = editDoc.getLength();
+        List<Report> reports = new ArrayList<>(diagnostics.size());
+        try {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+                // Other files in a directory aren't compiled from the editor.
+                JavaFileObject source = diagnostic.getSource();
+                boolean elsewhere =
+                    source != null && !(source instanceof SourceObject);
+                String where = elsewhere ?
+                    Path.of(source.toUri()).getFileName() + ":" : "";
+                long line = diagnostic.getLineNumber();
+                int start = 0;
+                int end = 0;
+                if (elsewhere) {
+                    // Not in the editor, so no range.
+                } else if (diagnostic.getStartPosition() != Diagnostic.NOPOS) {
+                    start = (int)Math.max(
+                        0, Math.min(length, diagnostic.getStartPosition())
+                    );
+                    end = (int)Math.max(
+                        0, Math.min(length, diagnostic.getEndPosition())
+                    );
+                } else if (line != Diagnostic.NOPOS) {
+                    // Just a line, so that is selected.
+                    int index = (int)Math.min(line, lines.lineCount()) - 1;
+                    start = lines.start(index);
+                    end = lines.end(index);
+                }
+                reports.add(new Report(
+                    diagnostic.getKind(),
+                    where + line + ": " +
+                        diagnostic.getMessage(Locale.getDefault()),
+                    editDoc.createPosition(start),
+                    editDoc.createPosition(end)
+                ));
+            }
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+        return reports;
+    }
+
+    private void select(Report report) {
+        edit.setSelectionStart(report.start.getOffset());
+        edit.setSelectionEnd(  report.end  .getOffset());
+        edit.grabFocus();
+    }
+}
+
+/** A diagnostic as shown, with its source range tracking edits. */
+class Report {
+    final Diagnostic.Kind kind;
+    final String text;
+    final Position start;
+    final Position end;
+    Report(Diagnostic.Kind kind, String text, Position start, Position end) {
+        this.kind = kind;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+}
+
+/**
+ * Reports shown in the error pane, filtered by kind.
+ * Changes are notified in batches. Used on AWT.
+ */
+@SuppressWarnings("serial")
+class ReportModel extends AbstractListModel<Report> {
+    private final List<Report> all = new ArrayList<>();
+    private final List<Report> shown = new ArrayList<>();
+    private final Set<Diagnostic.Kind> kinds =
+        EnumSet.allOf(Diagnostic.Kind.class);
+
+    @Override public int getSize() {
+        return shown.size();
+    }
+    @Override public Report getElementAt(int index) {
+        return shown.get(index);
+    }
+
+    void clear() {
+        all.clear();
+        setShown(List.of());
+    }
+
+    void addAll(List<Report> reports) {
+        all.addAll(reports);
+        int from = shown.size();
+        for (Report report : reports) {
+            if (kinds.contains(report.kind)) {
+                shown.add(report);
+            }
+        }
+        if (shown.size() != from) {
+            fireIntervalAdded(this, from, shown.size()-1);
+        }
+    }
+
+    void setShown(Collection<Diagnostic.Kind> kinds, boolean show) {
+        if (show) {
+            this.kinds.addAll(kinds);
+        } else {
+            this.kinds.removeAll(kinds);
+        }
+        List<Report> filtered = new ArrayList<>();
+        for (Report report : all) {
+            if (this.kinds.contains(report.kind)) {
+                filtered.add(report);
+            }
+        }
+        setShown(filtered);
+    }
+
+    private void setShown(List<Report> reports) {
+        int oldSize = shown.size();
+        shown.clear();
+        if (oldSize != 0) {
+            fireIntervalRemoved(this, 0, oldSize-1);
+        }
+        shown.addAll(reports);
+        if (!shown.isEmpty()) {
+            fireIntervalAdded(this, 0, shown.size()-1);
+        }
+    }
+}
+
+/**
+ * List of reports, wrapped to the viewport width.
+ * Only visible cells are painted, though all are measured.
+ */
+@SuppressWarnings("serial")
+class ReportList extends JList<Report> {
+    ReportList(ReportModel model) {
+        super(model);
+        setCellRenderer(new ReportRenderer());
+        addComponentListener(new ComponentAdapter() {
+            @Override public void componentResized(ComponentEvent event) {
+                // Wrapped heights depend upon width; remeasure.
+                setFixedCellHeight(0);
+                setFixedCellHeight(-1);
+            }
+        });
+    }
+
+    @Override public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+}
+
+/** Renders a report as wrapped text. */
+@SuppressWarnings("serial")
+class ReportRenderer extends JTextArea implements ListCellRenderer<Report> {
+    ReportRenderer() {
+        setLineWrap(true);
+        setEditable(false);
+    }
+
+    @Override public Component getListCellRendererComponent(
+        JList<? extends Report> list,
+        Report report,
+        int index,
+        boolean isSelected,
+        boolean cellHasFocus
+    ) {
+        setText(report.text);
+        // Preferred height follows from wrapping to this width.
+        setSize(list.getWidth(), Short.MAX_VALUE);
+        setBackground(
+            isSelected ? list.getSelectionBackground() : list.getBackground()
+        );
+        setForeground(
+            isSelected ? list.getSelectionForeground() : list.getForeground()
+        );
+        return this;
+    }
+}
+
+/**
+ * Plain document over a piece table.
+ * The initial text becomes the table's original buffer without copying.
+ */
+@SuppressWarnings("serial")
+class PieceDocument extends PlainDocument {
+    private final LineIndex lines = new LineIndex();
+
+    /** Text must be array backed, and not subsequently modified. */
+    PieceDocument(CharBuffer text) {
+        super(new PieceContent());
+        int length = text.remaining();
+        if (length == 0) {
+            return;
+        }
+        char[] cs = text.array();
+        int off = text.arrayOffset() + text.position();
+        writeLock();
+        try {
+            // As insertString would for text needing bidi or complex layout,
+            //   but erring on the side of caution.
+            for (int i=off; i<off+length; ++i) {
+                if (cs[i] >= '\u0590') {
+                    putProperty("i18n", Boolean.TRUE);
+                    break;
+                }
+            }
+            ((PieceContent)getContent()).seed(cs, off, length);
+            // Build the line elements as for an ordinary insert.
+            DefaultDocumentEvent event = new DefaultDocumentEvent(
+                0, length, DocumentEvent.EventType.INSERT
+            );
+            insertUpdate(event, null);
+            event.end();
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /** Kept up to date with edits, including undo and redo. */
+    LineIndex lines() {
+        return lines;
+    }
+
+    @Override protected void insertUpdate(
+        DefaultDocumentEvent event, AttributeSet attr
+    ) {
+        int offset = event.getOffset();
+        int length = event.getLength();
+        event.addEdit(lines.insert(offset, length, breaks(offset, length)));
+        super.insertUpdate(event, attr);
+    }
+
+    @Override protected void removeUpdate(DefaultDocumentEvent event) {
+        event.addEdit(lines.remove(event.getOffset(), event.getLength()));
+        super.removeUpdate(event);
+    }
+
+    /** Newlines in the text, relative to offset. */
+    private int[] breaks(int offset, int length) {
+        int[] breaks = new int[16];
+        int count = 0;
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        try {
+            for (int done=0; done<length; done+=segment.count) {
+                getText(offset+done, length-done, segment);
+                for (int i=0; i<segment.count; ++i) {
+                    if (segment.array[segment.offset+i] == '\n') {
+                        if (count == breaks.length) {
+                            breaks = Arrays.copyOf(breaks, count*2);
+                        }
+                        breaks[count++] = done+i;
+                    }
+                }
+            }
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+        return Arrays.copyOf(breaks, count);
+    }
+}
+
+/**
+ * Line starts of a document, as a treap of line lengths in text order.
+ * Each node has the line and character totals of its subtree,
+ *   so offset to line, line to offset and edits take O(log n),
+ *   plus O(log n) for each line an edit adds.
+ * Lines include their newline, and there is always the implied final one.
+ * Updated by the document under its write lock. Used on AWT.
+ */
+class LineIndex {
+    private static class Node {
+        final int priority;
+        /** Characters in this line, including the newline. */
+        int length;
+        /** Lines in this subtree. */
+        int lines;
+        /** Characters in this subtree. */
+        int chars;
+        Node left;
+        Node right;
+        Node(int priority, int length) {
+            this.priority = priority;
+            this.length = length;
+            this.lines = 1;
+            this.chars = length;
+        }
+    }
+
+    private final Random random = new Random();
+    /** Initially the implied newline. */
+    private Node root = new Node(random.nextInt(), 1);
+
+    int lineCount() {
+        return root.lines;
+    }
+
+    /** Index of the line containing offset, clamped to the document. */
+    int line(int offset) {
+        offset = Math.max(0, Math.min(root.chars-1, offset));
+        int line = 0;
+        Node node = root;
+        for (;;) {
+            int leftChars = chars(node.left);
+            if (offset < leftChars) {
+                node = node.left;
+            } else if (offset < leftChars + node.length) {
+                return line + lines(node.left);
+            } else {
+                offset -= leftChars + node.length;
+                line += lines(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /** Offset of the start of the line, or the length after the last. */
+    int start(int line) {
+        line = Math.max(0, Math.min(root.lines, line));
+        int start = 0;
+        Node node = root;
+        while (node != null) {
+            int leftLines = lines(node.left);
+            if (line < leftLines) {
+                node = node.left;
+            } else if (line == leftLines) {
+                return start + chars(node.left);
+            } else {
+                line -= leftLines + 1;
+                start += chars(node.left) + node.length;
+                node = node.right;
+            }
+        }
+        return start;
+    }
+
+    /** Offset of the newline ending the line. */
+    int end(int line) {
+        return start(line+1) - 1;
+    }
+
+    /** Records an insert, given its newlines relative to offset. */
+    UndoableEdit insert(int offset, int length, int[] breaks) {
+        insertLines(offset, length, breaks);
+        return new AbstractUndoableEdit() {
+            @Override public void undo() {
+                super.undo();
+                removeLines(offset, length);
+            }
+            @Override public void redo() {
+                super.redo();
+                insertLines(offset, length, breaks);
+            }
+        };
+    }
+
+    /** Records a removal, before the text goes. */
+    UndoableEdit remove(int offset, int length) {
+        int[] breaks = removeLines(offset, length);
+        return new AbstractUndoableEdit() {
+            @Override public void undo() {
+                super.undo();
+                insertLines(offset, length, breaks);
+            }
+            @Override public void redo() {
+                super.redo();
+                removeLines(offset, length);
+            }
+        };
+    }
+
+    private void insertLines(int offset, int length, int[] breaks) {
+        if (length == 0) {
+            return;
+        }
+        int line = line(offset);
+        int before = offset - start(line);
+        Node[] split = split(root, line);
+        Node[] rest = split(split[1], 1);
+        Node old = rest[0];
+        int after = old.length - before;
+        Node inserted;
+        if (breaks.length == 0) {
+            old.length += length;
+            update(old);
+            inserted = old;
+        } else {
+            // The line is split around the new lines.
+            old.length = before + breaks[0] + 1;
+            update(old);
+            inserted = old;
+            for (int i=1; i<breaks.length; ++i) {
+                inserted = merge(inserted, node(breaks[i] - breaks[i-1]));
+            }
+            inserted = merge(
+                inserted, node(length - breaks[breaks.length-1] - 1 + after)
+            );
+        }
+        root = merge(merge(split[0], inserted), rest[1]);
+    }
+
+    /** Returns the removed newlines relative to offset. */
+    private int[] removeLines(int offset, int length) {
+        if (length == 0) {
+            return new int[0];
+        }
+        int first = line(offset);
+        int last = line(offset+length);
+        int[] breaks = new int[last-first];
+        for (int i=0; i<breaks.length; ++i) {
+            breaks[i] = end(first+i) - offset;
+        }
+        int firstStart = start(first);
+        int lastEnd = end(last) + 1;
+        Node[] split = split(root, first);
+        Node[] rest = split(split[1], last-first+1);
+        // What remains of the first and last lines joins up.
+        Node joined = node(lastEnd - firstStart - length);
+        root = merge(merge(split[0], joined), rest[1]);
+        return breaks;
+    }
+
+    private Node node(int length) {
+        return new Node(random.nextInt(), length);
+    }
+
+    /** Splits into the first count lines, and the rest. */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        int leftLines = lines(node.left);
+        if (count <= leftLines) {
+            Node[] split = split(node.left, count);
+            node.left = split[1];
+            update(node);
+            split[1] = node;
+            return split;
+        } else {
+            Node[] split = split(node.right, count - leftLines - 1);
+            node.right = split[0];
+            update(node);
+            split[0] = node;
+            return split;
+        }
+    }
+
+    /** Joins trees, all of whose lines in a precede those of b. */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static void update(Node node) {
+        node.lines = lines(node.left) + 1 + lines(node.right);
+        node.chars = chars(node.left) + node.length + chars(node.right);
+    }
+
+    private static int lines(Node node) {
+        return node == null ? 0 : node.lines;
+    }
+
+    private static int chars(Node node) {
+        return node == null ? 0 : node.chars;
+    }
+}
+
+/**
+ * Document content as a piece table.
+ * The text is a sequence of pieces of either the original buffer
+ *   or the append-only add buffer, neither of which is ever modified,
+ *   so segments can refer straight into them.
+ * Edits cost in proportion to the number of pieces, not the text length.
+ * Positions move as for StringContent, but are kept relative to a gap,
+ *   as in GapContent, so only those near an edit are updated.
+ */
+class PieceContent implements AbstractDocument.Content {
+    private static final int blockSize = 16*1024;
+    private static final int gapSize = 4*1024;
+
+    // Pieces in text order: buffer, offset within buffer, length and start.
+    private char[][] buffers = new char[16][];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] starts = new int[16];
+    private int count;
+    private int length;
+
+    // Add buffer is in blocks so existing pieces are never moved.
+    private char[] block = new char[blockSize];
+    private int blockUsed;
+
+    // Marks sorted by index. Indices before gapStart are offsets,
+    //   from gapEnd they are offsets plus the gap length.
+    private PieceMark[] marks = new PieceMark[16];
+    private int markCount;
+    private int gapStart;
+    private int gapEnd = gapSize;
+    private int releasedCount;
+    private final ReferenceQueue<PiecePosition> released =
+        new ReferenceQueue<>();
+
+    PieceContent() {
+        // Implied newline at the end.
+        insertPiece(0, "\n");
+    }
+
+    /** Inserts original text into empty content. */
+    synchronized void seed(char[] cs, int off, int len) {
+        if (length != 1) {
+            throw new IllegalStateException();
+        }
+        insertPiece(0, cs, off, len);
+        insertMarks(0, len);
+    }
+
+    @Override public int length() {
+        return length;
+    }
+
+    @Override public synchronized UndoableEdit insertString(
+        int where, String str
+    ) throws BadLocationException {
+        if (where >= length || where < 0) {
+            throw new BadLocationException("Invalid location", length);
+        }
+        int len = str.length();
+        if (len == 0) {
+            return null;
+        }
+        insertPiece(where, str);
+        insertMarks(where, len);
+        return new AbstractUndoableEdit() {
+            // Valid after undo.
+            private String string;
+            private Map<PieceMark, Integer> marked;
+            @Override public void undo() {
+                super.undo();
+                try {
+                    synchronized (PieceContent.this) {
+                        marked = marksInRange(where, where+len);
+                        string = getString(where, len);
+                        remove(where, len);
+                    }
+                } catch (BadLocationException exc) {
+                    throw new CannotUndoException();
+                }
+            }
+            @Override public void redo() {
+                super.redo();
+                try {
+                    synchronized (PieceContent.this) {
+                        insertString(where, string);
+                        string = null;
+                        restoreMarks(marked);
+                        marked = null;
+                    }
+                } catch (BadLocationException exc) {
+                    throw new CannotRedoException();
+                }
+            }
+        };
+    }
+
+    @Override public synchronized UndoableEdit remove(
+        int where, int nitems
+    ) throws BadLocationException {
+        if (where + nitems >= length || where < 0 || nitems < 0) {
+            throw new BadLocationException("Invalid range", length);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        UndoableEdit edit = new AbstractUndoableEdit() {
+            // Valid until undo, and after redo.
+            private String string = getString(where, nitems);
+            private Map<PieceMark, Integer> marked =
+                marksInRange(where, where+nitems);
+            @Override public void undo() {
+                super.undo();
+                try {
+                    synchronized (PieceContent.this) {
+                        insertString(where, string);
+                        string = null;
+                        restoreMarks(marked);
+                        marked = null;
+                    }
+                } catch (BadLocationException exc) {
+                    throw new CannotUndoException();
+                }
+            }
+            @Override public void redo() {
+                super.redo();
+                try {
+                    synchronized (PieceContent.this) {
+                        marked = marksInRange(where, where+nitems);
+                        string = getString(where, nitems);
+                        remove(where, nitems);
+                    }
+                } catch (BadLocationException exc) {
+                    throw new CannotRedoException();
+                }
+            }
+        };
+        removePieces(where, nitems);
+        removeMarks(where, nitems);
+        return edit;
+    }
+
+    @Override public synchronized String getString(
+        int where, int len
+    ) throws BadLocationException {
+        char[] cs = new char[len];
+        copy(where, len, cs);
+        return new String(cs);
+    }
+
+    /**
+     * Refers the segment into the table where the range is in one piece,
+     *   or if partial return is allowed. Otherwise copies.
+     */
+    @Override public synchronized void getChars(
+        int where, int len, Segment chars
+    ) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid location", length);
+        }
+        int i = locate(where);
+        int within = where - starts[i];
+        int available = lengths[i] - within;
+        if (len <= available || chars.isPartialReturn()) {
+            chars.array = buffers[i];
+            chars.offset = offsets[i] + within;
+            chars.count = Math.min(len, available);
+        } else {
+            char[] cs = new char[len];
+            copy(where, len, cs);
+            chars.array = cs;
+            chars.offset = 0;
+            chars.count = len;
+        }
+    }
+
+    private void copy(
+        int where, int len, char[] cs
+    ) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", length);
+        }
+        int off = 0;
+        for (int i=locate(where); off < len; ++i) {
+            int within = off == 0 ? where - starts[i] : 0;
+            int n = Math.min(len - off, lengths[i] - within);
+            System.arraycopy(buffers[i], offsets[i] + within, cs, off, n);
+            off += n;
+        }
+    }
+
+    /** Piece containing offset, which must be within the text. */
+    private int locate(int where) {
+        int lo = 0;
+        int hi = count-1;
+        while (lo < hi) {
+            int mid = (lo+hi+1) >>> 1;
+            if (starts[mid] <= where) {
+                lo = mid;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    private void insertPiece(int where, String str) {
+        int len = str.length();
+        if (blockSize - blockUsed < len) {
+            block = new char[Math.max(blockSize, len)];
+            blockUsed = 0;
+        }
+        str.getChars(0, len, block, blockUsed);
+        insertPiece(where, block, blockUsed, len);
+        blockUsed += len;
+    }
+
+    private void insertPiece(int where, char[] buffer, int off, int len) {
+        int i = count == 0 ? 0 : locate(where);
+        int within = count == 0 ? 0 : where - starts[i];
+        if (
+            within == 0 && i > 0 &&
+            buffers[i-1] == buffer && offsets[i-1] + lengths[i-1] == off
+        ) {
+            // Typing on from the previous insert.
+            lengths[i-1] += len;
+        } else if (within == 0) {
+            replacePieces(i, i, 1);
+            setPiece(i, buffer, off, len);
+        } else {
+            // Split.
+            replacePieces(i+1, i+1, 2);
+            setPiece(i+2, buffers[i], offsets[i] + within, lengths[i] - within);
+            setPiece(i+1, buffer, off, len);
+            lengths[i] = within;
+        }
+        length += len;
+        fixStarts(i);
+    }
+
+    private void removePieces(int where, int len) {
+        int end = where + len;
+        int i = locate(where);
+        // End is before the implied newline, so within a piece.
+        int j = locate(end);
+        int left = where - starts[i];
+        int right = end - starts[j];
+        char[] leftBuffer = buffers[i];
+        int leftOffset = offsets[i];
+        char[] rightBuffer = buffers[j];
+        int rightOffset = offsets[j] + right;
+        int rightLength = lengths[j] - right;
+        int keep = left == 0 ? 1 : 2;
+        replacePieces(i, j+1, keep);
+        if (left != 0) {
+            setPiece(i, leftBuffer, leftOffset, left);
+        }
+        setPiece(i+keep-1, rightBuffer, rightOffset, rightLength);
+        length -= len;
+        fixStarts(i);
+    }
+
+    /** Makes room for replacing pieces [from, to) with num pieces. */
+    private void replacePieces(int from, int to, int num) {
+        int newCount = count - (to - from) + num;
+        if (newCount > buffers.length) {
+            int capacity = Math.max(newCount, buffers.length*2);
+            buffers = Arrays.copyOf(buffers, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+        }
+        int tail = count - to;
+        System.arraycopy(buffers, to, buffers, from+num, tail);
+        System.arraycopy(offsets, to, offsets, from+num, tail);
+        System.arraycopy(lengths, to, lengths, from+num, tail);
+        // Don't hold on to released buffers.
+        Arrays.fill(buffers, newCount, Math.max(newCount, count), null);
+        count = newCount;
+    }
+
+    private void setPiece(int i, char[] buffer, int off, int len) {
+        buffers[i] = buffer;
+        offsets[i] = off;
+        lengths[i] = len;
+    }
+
+    private void fixStarts(int from) {
+        for (int i=Math.max(1, from); i<count; ++i) {
+            starts[i] = starts[i-1] + lengths[i-1];
+        }
+    }
+
+    @Override public synchronized Position createPosition(int offset) {
+        releaseMarks();
+        PiecePosition position = new PiecePosition(this);
+        PieceMark mark = new PieceMark(position, released);
+        position.mark = mark;
+        addMark(mark, offset);
+        return position;
+    }
+
+    synchronized int offset(PieceMark mark) {
+        int index = mark.index;
+        return index < gapStart ? index : index - (gapEnd - gapStart);
+    }
+
+    private void addMark(PieceMark mark, int offset) {
+        mark.index = offset < gapStart ? offset : offset + (gapEnd - gapStart);
+        // After any at the same index.
+        int at = firstMark(mark.index+1);
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount*2);
+        }
+        System.arraycopy(marks, at, marks, at+1, markCount-at);
+        marks[at] = mark;
+        ++markCount;
+    }
+
+    /** Index into marks of the first with index at least that given. */
+    private int firstMark(int index) {
+        int lo = 0;
+        int hi = markCount;
+        while (lo < hi) {
+            int mid = (lo+hi) >>> 1;
+            if (marks[mid].index < index) {
+                lo = mid+1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Moves the gap so that marks from offset are after it. */
+    private void moveGap(int offset) {
+        int gap = gapEnd - gapStart;
+        if (offset < gapStart) {
+            for (
+                int i=firstMark(offset);
+                i<markCount && marks[i].index < gapStart;
+                ++i
+            ) {
+                marks[i].index += gap;
+            }
+        } else if (offset > gapStart) {
+            for (
+                int i=firstMark(gapEnd);
+                i<markCount && marks[i].index < offset + gap;
+                ++i
+            ) {
+                marks[i].index -= gap;
+            }
+        }
+        gapStart = offset;
+        gapEnd = offset + gap;
+    }
+
+    private void insertMarks(int where, int len) {
+        // Marks at the insertion point move, except at the start.
+        moveGap(where == 0 ? 1 : where);
+        if (gapEnd - gapStart < len) {
+            int extra = Math.max(len, gapSize);
+            for (int i=firstMark(gapEnd); i<markCount; ++i) {
+                marks[i].index += extra;
+            }
+            gapEnd += extra;
+        }
+        gapStart += len;
+    }
+
+    private void removeMarks(int where, int len) {
+        moveGap(where);
+        // Marks within the removed text collapse to its start.
+        int end = gapEnd + len;
+        for (int i=firstMark(gapEnd); i<markCount && marks[i].index < end; ++i) {
+            marks[i].index = end;
+        }
+        gapEnd = end;
+    }
+
+    /** Offsets of marks in the inclusive range, for undo. */
+    private Map<PieceMark, Integer> marksInRange(int from, int to) {
+        Map<PieceMark, Integer> marked = new LinkedHashMap<>();
+        int lo = 0;
+        int hi = markCount;
+        while (lo < hi) {
+            int mid = (lo+hi) >>> 1;
+            if (offset(marks[mid]) < from) {
+                lo = mid+1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i=lo; i<markCount; ++i) {
+            int offset = offset(marks[i]);
+            if (offset > to) {
+                break;
+            }
+            marked.put(marks[i], offset);
+        }
+        return marked;
+    }
+
+    private void restoreMarks(Map<PieceMark, Integer> marked) {
+        int num = 0;
+        for (int i=0; i<markCount; ++i) {
+            if (!marked.containsKey(marks[i])) {
+                marks[num++] = marks[i];
+            }
+        }
+        Arrays.fill(marks, num, markCount, null);
+        markCount = num;
+        for (Map.Entry<PieceMark, Integer> entry : marked.entrySet()) {
+            if (entry.getKey().get() != null) {
+                addMark(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Drops marks of positions that have been collected. */
+    private void releaseMarks() {
+        while (released.poll() != null) {
+            ++releasedCount;
+        }
+        if (releasedCount > markCount/2) {
+            int num = 0;
+            for (int i=0; i<markCount; ++i) {
+                if (marks[i].get() != null) {
+                    marks[num++] = marks[i];
+                }
+            }
+            Arrays.fill(marks, num, markCount, null);
+            markCount = num;
+            releasedCount = 0;
+        }
+    }
+}
+
+/** Position within PieceContent. */
+class PiecePosition implements Position {
+    private final PieceContent content;
+    PieceMark mark;
+    PiecePosition(PieceContent content) {
+        this.content = content;
+    }
+    @Override public int getOffset() {
+        return content.offset(mark);
+    }
+    @Override public String toString() {
+        return Integer.toString(getOffset());
+    }
+}
+
+/** Location of a PiecePosition, released once the position is unused. */
+class PieceMark extends WeakReference<PiecePosition> {
+    int index;
+    PieceMark(PiecePosition position, ReferenceQueue<PiecePosition> queue) {
+        super(position, queue);
+    }
+}
+
+/**
+ * Undo history that groups edits into steps, and bounds its size.
+ * Consecutive typed characters join a step until a word or line boundary,
+ *   a pause, or typing moves elsewhere. Likewise for deletes.
+ * Edits made within atomic are a single step.
+ * The oldest steps are dropped once the estimated size exceeds the budget,
+ *   rather than after a count of edits.
+ */
+@SuppressWarnings("serial")
+class UndoHistory extends UndoManager {
+    /** Rough bytes per edit, excluding its text. */
+    private static final int EDIT_BYTES = 200;
+    private static final long PAUSE_NANOS = 1_000_000_000L;
+    private final long budget;
+    private long bytes;
+    /** Step still taking edits, or null. */
+    private Step step;
+    private int atomic;
+
+    UndoHistory(long budget) {
+        this.budget = budget;
+        setLimit(Integer.MAX_VALUE);
+    }
+
+    /** Makes the edits made by task a single step. */
+    void atomic(Runnable task) {
+        endStep();
+        ++atomic;
+        try {
+            task.run();
+        } finally {
+            if (--atomic == 0) {
+                endStep();
+            }
+        }
+    }
+
+    @Override public synchronized void undoableEditHappened(
+        UndoableEditEvent event
+    ) {
+        UndoableEdit edit = event.getEdit();
+        long now = System.nanoTime();
+        if (step == null || !(atomic != 0 || step.continues(edit, now))) {
+            endStep();
+            step = new Step();
+            // Discards anything that could have been redone.
+            addEdit(step);
+        }
+        bytes += step.add(edit, now);
+        // Always keep the step being added to, which is last.
+        while (bytes > budget && edits.size() > 1) {
+            trimEdits(0, 0);
+        }
+    }
+
+    @Override public synchronized boolean canUndo() {
+        // An open step can be undone, but a CompoundEdit would say not.
+        return (step != null && step.isSignificant()) || super.canUndo();
+    }
+
+    @Override public synchronized void undo() {
+        endStep();
+        super.undo();
+    }
+
+    @Override public synchronized void redo() {
+        endStep();
+        super.redo();
+    }
+
+    @Override public synchronized void discardAllEdits() {
+        endStep();
+        super.discardAllEdits();
+        bytes = 0;
+    }
+
+    @Override protected void trimEdits(int from, int to) {
+        for (int i=from; i<=to; ++i) {
+            bytes -= ((Step)edits.get(i)).bytes;
+        }
+        super.trimEdits(from, to);
+    }
+
+    private void endStep() {
+        if (step != null) {
+            step.end();
+            step = null;
+        }
+    }
+
+    private static class Step extends CompoundEdit {
+        long bytes;
+        /** Type of the last edit if a single character, otherwise null. */
+        private DocumentEvent.EventType type;
+        /** Range of the last single character edit. */
+        private int start;
+        private int end;
+        /** Character inserted by the last edit. */
+        private char last;
+        private long time;
+
+        /** Whether edit continues typing (or deleting) from this step. */
+        boolean continues(UndoableEdit edit, long now) {
+            if (
+                type == null ||
+                now - time > PAUSE_NANOS ||
+                !(edit instanceof DocumentEvent)
+            ) {
+                return false;
+            }
+            DocumentEvent change = (DocumentEvent)edit;
+            int off = change.getOffset();
+            if (change.getType() != type || change.getLength() != 1) {
+                return false;
+            } else if (type == DocumentEvent.EventType.INSERT) {
+                // A step ends after a newline, or with spaces after a word.
+                char c = charAt(change);
+                return off == end && last != '\n' && !(
+                    Character.isWhitespace(last) && !Character.isWhitespace(c)
+                );
+            } else if (type == DocumentEvent.EventType.REMOVE) {
+                // Backspace or delete.
+                return off == start-1 || off == start;
+            } else {
+                return false;
+            }
+        }
+
+        /** Adds edit, returning its estimated size. */
+        long add(UndoableEdit edit, long now) {
+            addEdit(edit);
+            time = now;
+            type = null;
+            long size = EDIT_BYTES;
+            if (edit instanceof DocumentEvent) {
+                DocumentEvent change = (DocumentEvent)edit;
+                int length = change.getLength();
+                size += 2L*length;
+                if (length == 1) {
+                    type = change.getType();
+                    start = change.getOffset();
+                    end = start + 1;
+                    if (type == DocumentEvent.EventType.INSERT) {
+                        last = charAt(change);
+                    }
+                }
+            }
+            bytes += size;
+            return size;
+        }
+
+        private static char charAt(DocumentEvent change) {
+            try {
+                return change.getDocument().getText(
+                    change.getOffset(), 1
+                ).charAt(0);
+            } catch (BadLocationException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+    }
+}
+
+/**
+ * Indentation for a document.
+ * Keeps the scanner state at the start of each line scanned so far,
+ *   so a query only scans from the nearest line start.
+ * Edits invalidate checkpoints after the edited line only.
+ */
+class Indenter implements DocumentListener {
+    private final Document doc;
+    private final LineIndex lines;
+    // Per line: start offset, scanner state and whether only spaces.
+    private int[] starts = { 0 };
+    private int[] indents = { 0 };
+    private boolean[] wasInCodes = { false };
+    private boolean[] blanks = { false };
+    /** Number of lines with valid checkpoints. */
+    private int count = 1;
+
+    Indenter(Document doc, LineIndex lines) {
+        this.doc = doc;
+        this.lines = lines;
+        doc.addDocumentListener(this);
+    }
+
+    @Override public void insertUpdate(DocumentEvent event) {
+        invalidate(event.getOffset());
+    }
+    @Override public void removeUpdate(DocumentEvent event) {
+        invalidate(event.getOffset());
+    }
+    @Override public void changedUpdate(DocumentEvent event) {
+    }
+
+    private void invalidate(int off) {
+        // Lines starting at or before the edit see unchanged text.
+        count = lineIndex(off) + 1;
+    }
+
+    void newLine(int pos) {
+        try {
+            int required = requiredIndent(pos);
+            doc.insertString(pos, "\n"+" ".repeat(required), null);
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    void typeClose(int pos, char close) {
+        try {
+            int remove = 0;
+            int newLine = findPreviousNewLine(pos);
+            if (newLine != -1) {
+                int required = Math.max(0, requiredIndent(newLine) - 4);
+                int startOfLine = newLine+1;
+                int actual = pos-startOfLine;
+                remove = Math.max(0, actual-required);
+                if (remove != 0) {
+                    doc.remove(pos-remove, remove);
+                }
+            }
+            doc.insertString(pos-remove, Character.toString(close), null);
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    /** Indent for a new line following the text before pos. */
+    int requiredIndent(int pos) throws BadLocationException {
+        ensureLines(pos);
+        int line = lineIndex(pos);
+        // Blank lines are scanned with the line that follows them.
+        while (line > 0 && blanks[line-1]) {
+            --line;
+        }
+        int start = starts[line];
+        IndentState state = new IndentState(indents[line], wasInCodes[line]);
+        CharMatcher in = new CharMatcher(doc, start, pos);
+        while (in.hasNext()) {
+            state.line(in);
+        }
+        return state.required();
+    }
+
+    /** Newline ending the previous line if only spaces before pos. */
+    private int findPreviousNewLine(int off) throws BadLocationException {
+        int start = lines.start(lines.line(off));
+        CharMatcher in = new CharMatcher(doc, start, off);
+        while (in.match(' ')) {
+            ;
+        }
+        return in.hasNext() ? -1 : start-1;
+    }
+
+    /** Computes checkpoints for all lines starting at or before pos. */
+    private void ensureLines(int pos) throws BadLocationException {
+        int base = starts[count-1];
+        if (pos <= base) {
+            return;
+        }
+        CharMatcher in = new CharMatcher(doc, base, pos);
+        IndentState state = new IndentState(0, false);
+        while (in.hasNext()) {
+            int last = count-1;
+            state.indent = indents[last];
+            state.wasInCode = wasInCodes[last];
+            int thisIndent = 0;
+            while (in.match(' ')) {
+                ++thisIndent;
+            }
+            boolean blank = in.match('\n');
+            if (!blank && !(in.hasNext() && state.line(in, thisIndent))) {
+                // Line continues past pos.
+                break;
+            }
+            blanks[last] = blank;
+            addLine(in.offset(), state);
+        }
+    }
+
+    private void addLine(int start, IndentState state) {
+        if (count == starts.length) {
+            int capacity = count*2;
+            starts = Arrays.copyOf(starts, capacity);
+            indents = Arrays.copyOf(indents, capacity);
+            wasInCodes = Arrays.copyOf(wasInCodes, capacity);
+            blanks = Arrays.copyOf(blanks, capacity);
+        }
+        starts[count] = start;
+        indents[count] = state.indent;
+        wasInCodes[count] = state.wasInCode;
+        blanks[count] = false;
+        ++count;
+    }
+
+    /** Last checkpointed line starting at or before off. */
+    private int lineIndex(int off) {
+        int lo = 0;
+        int hi = count-1;
+        while (lo < hi) {
+            int mid = (lo+hi+1) >>> 1;
+            if (starts[mid] <= off) {
+                lo = mid;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+}
+
+/**
+ * Indentation scanner state carried from one line to the next.
+ * Strings and comments do not span lines, so that is all there is.
+ */
+class IndentState {
+    int indent;
+    boolean wasInCode;
+
+    IndentState(int indent, boolean wasInCode) {
+        this.indent = indent;
+        this.wasInCode = wasInCode;
+    }
+
+    static int requiredIndent(CharMatcher in) {
+        IndentState state = new IndentState(0, false);
+        while (in.hasNext()) {
+            state.line(in);
+        }
+        return state.required();
+    }
+
+    int required() {
+        int indent = Math.max(0, this.indent);
+        // Round half indents up.
+        indent = (indent+2)/4*4;
+        return indent;
+    }
+
+    /** Scans a line, preceded by any blank lines, including its newline. */
+    boolean line(CharMatcher in) {
+        // Deal with leading whitespace, skipping blank lines.
+        return line(in, findIndent(in));
+    }
+
+    /**
+     * Scans the rest of a line after its indent, including its newline.
+     * Returns false if the input ended first.
+     */
+    boolean line(CharMatcher in, int thisIndent) {
+        //boolean comment = false;
+
+        final boolean startsOpen;
+        boolean inCode = false;
+        int open = 0;
+        if (in.match(')') || in.match(']')) {
+            startsOpen = true;
+            --open;
+            inCode = true;
+        } else if (in.match('}')) {
+            startsOpen = true;
+            --open;
+            inCode = false;
+        } else {
+            startsOpen = false;
+        }
+        boolean ended = false;
+        while (!ended && in.hasNext()) {
+            if (in.match('\n')) {
+                ended = true;
+            } else if (in.match('(') || in.match('[') || in.match('{')) {
+                ++open;
+                inCode = true;
+            } else if (in.match(')') || in.match(']')) {
+                --open;
+                inCode = true;
+            } else if (in.match('}')) {
+                --open;
+                inCode = false;
+            } else if (in.match('/')) {
+                if (in.match('*')) {
+                    // Block comment - TODO
+                } else if (in.match('/')) {
+                    // Winged comment - skip line. 
+                    while (in.matchExcept('\n')) {
+                        ;
+                    }
+                } else {
+                    inCode = true;
+                }
+            } else if (in.match('"')) {
+                skipQuoted(in, '"');
+                inCode = true;
+            } else if (in.match('\'')) {
+                skipQuoted(in, '\'');
+                inCode = true;
+            } else if (in.match(';') || in.match(',')) {
+                // Still inCode in for (;;) (also try (;) and lambdas)
+                inCode = open != 0;
+            } else {
+                in.next();
+                inCode = true;
+            }
+        }
+        if (open > 0 || (open == 0 && startsOpen)) {
+            indent =  thisIndent + 4;
+            wasInCode = false;
+        } else if (inCode == wasInCode) {
+            indent = thisIndent;
+        } else {
+            indent = inCode ? thisIndent + 8 : thisIndent - 8;
+            wasInCode = inCode;
+        }
+        return ended;
+    }
+    
+    private static int findIndent(CharMatcher in) {
+        int thisIndent;
+        do {
+            thisIndent = 0;
+            while (in.match(' ')) {
+                ++thisIndent;
+            }
+        } while (in.match('\n'));
+        return thisIndent;
+    }
+
+    static void skipQuoted(CharMatcher in, char close) {
+        // Ignore multiline comments.
+        for (;;) {
+            if (in.match('\\')) {
+                // Skip escaped, unless new line.
+                in.matchExcept('\n');
+            } else if (in.match(close)) {
+                break;
+            } else if (in.matchExcept('\n')) {
+                // Ignore.
+            } else {
+                break;
+            }
+        }
+    }
+}
+/**
+ * Matches characters from an array, or from a range of a document.
+ * Documents are read a chunk at a time through a partial return segment,
+ *   so scanning doesn't copy the text.
+ */
+class CharMatcher {
+    private final Document doc;
+    private final Segment segment;
+    private char[] cs;
+    private int off;
+    private int len;
+    /** Document offset of cs[len]. */
+    private int docOff;
+    private int docEnd;
+    CharMatcher(char[] cs) {
+        this(cs, 0, cs.length);
+    }
+    CharMatcher(char[] cs, int off, int len) {
+        this.doc = null;
+        this.segment = null;
+        this.cs = cs;
+        this.off = off;
+        this.len = len;
+        this.docOff = len;
+        this.docEnd = len;
+    } 
+    CharMatcher(Document doc, int start, int end) {
+        this.doc = doc;
+        this.segment = new Segment();
+        segment.setPartialReturn(true);
+        this.docOff = start;
+        this.docEnd = end;
+    }
+    /** Offset of the next character, in the document or array. */
+    int offset() {
+        return docOff - (len - off);
+    }
+    boolean hasNext() {
+        return off != len || fill();
+    }
+    private boolean fill() {
+        if (docOff == docEnd) {
+            return false;
+        }
+        try {
+            doc.getText(docOff, docEnd-docOff, segment);
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+        cs = segment.array;
+        off = segment.offset;
+        len = off + segment.count;
+        docOff += segment.count;
+        return off != len;
+    }
+    char next() {
+        hasNext();
+        return cs[off++];
+    }
+    boolean match(char c) {
+        if (hasNext() && cs[off] == c) {
+            ++off;
+            return true;
+        } else {
+            return false;
+        }
+    }
+    boolean matchExcept(char c) {
+        if (hasNext() && cs[off] != c) {
+            ++off;
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
+
+/** Text area UI that highlights wrapped plain text. */
+class HighlightTextAreaUI extends javax.swing.plaf.basic.BasicTextAreaUI {
+    @Override public View create(Element elem) {
+        JTextArea area = (JTextArea)getComponent();
+        // Bidirectional text needs the default views.
+        if (
+            area.getLineWrap() &&
+            !Boolean.TRUE.equals(elem.getDocument().getProperty("i18n"))
+        ) {
+            return new HighlightView(elem, area.getWrapStyleWord());
+        } else {
+            return super.create(elem);
+        }
+    }
+}
+
+/**
+ * Wrapped view colouring comments, strings and brackets.
+ * The lexer state at the start of each line is kept, and only computed
+ *   as far as lines are painted, which is only those in the viewport.
+ * After an edit, lines are re-lexed from the edited line until a state
+ *   matches the one from before the edit, after which the rest still hold.
+ */
+class HighlightView extends WrappedPlainView {
+    private static final int CODE = 0;
+    private static final int COMMENT = 1;
+    private static final int TEXT_BLOCK = 2;
+
+    private static final int PLAIN = 0;
+    private static final int QUOTED = 2;
+    private static final int BRACKET = 3;
+    private static final Color[] colors = {
+        null, new Color(0x3f7f5f), new Color(0x2a00ff), new Color(0x7f0055)
+    };
+
+    /** State at the start of each line. */
+    private int[] states = new int[64];
+    /** Lines whose states are up to date. */
+    private int valid = 1;
+    /** Lines with states, possibly from before edits. */
+    private int known = 1;
+    /**
+     * States of known lines from here on were computed from the text as it
+     *   still is, so a match continues to the end of known.
+     */
+    private int dirtyEnd;
+    private int lineCount;
+
+    HighlightView(Element elem, boolean wordWrap) {
+        super(elem, wordWrap);
+        lineCount = elem.getElementCount();
+    }
+
+    /** Receives runs of characters from the lexer. */
+    private interface Runs {
+        /** Characters up to end, from the end of the last run. */
+        void run(int kind, int end);
+    }
+
+    @Override protected float drawUnselectedText(
+        Graphics2D g, float x, float y, int p0, int p1
+    ) throws BadLocationException {
+        Element root = getElement();
+        int line = root.getElementIndex(p0);
+        int start = root.getElement(line).getStartOffset();
+        // Scanning stops at p1, but the kind of a run is known from its start.
+        Painter painter = new Painter(g, x, y, p0, p1, start);
+        scan(new CharMatcher(getDocument(), start, p1), stateAt(line), painter);
+        return painter.flush();
+    }
+
+    /** Draws runs merged by kind, clipped to p0 to p1. */
+    private class Painter implements Runs {
+        private final Graphics2D g;
+        private final float y;
+        private final int p0;
+        private final int p1;
+        private final Color plain;
+        private final Segment text = getLineBuffer();
+        private float x;
+        private int kind = PLAIN;
+        private int start;
+        private int end;
+
+        Painter(Graphics2D g, float x, float y, int p0, int p1, int start) {
+            JTextComponent host = (JTextComponent)getContainer();
+            this.g = g;
+            this.x = x;
+            this.y = y;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.plain = host.isEnabled() ?
+                host.getForeground() : host.getDisabledTextColor();
+            this.start = start;
+            this.end = start;
+        }
+
+        @Override public void run(int kind, int end) {
+            if (kind != this.kind) {
+                flush();
+                this.kind = kind;
+                this.start = this.end;
+            }
+            this.end = end;
+        }
+
+        /** Draws the current run, returning the x following. */
+        float flush() {
+            int from = Math.max(p0, start);
+            int to = Math.min(p1, end);
+            if (from < to) {
+                Color color = colors[kind];
+                g.setColor(color == null ? plain : color);
+                try {
+                    getDocument().getText(from, to-from, text);
+                } catch (BadLocationException exc) {
+                    throw new RuntimeException(exc);
+                }
+                x = Utilities.drawTabbedText(
+                    text, x, y, g, HighlightView.this, from
+                );
+            }
+            start = end;
+            return x;
+        }
+    }
+
+    @Override public void insertUpdate(
+        DocumentEvent event, Shape alloc, ViewFactory factory
+    ) {
+        int next = updateLines(event);
+        super.insertUpdate(event, alloc, factory);
+        repaintFollowing(next);
+    }
+
+    @Override public void removeUpdate(
+        DocumentEvent event, Shape alloc, ViewFactory factory
+    ) {
+        int next = updateLines(event);
+        super.removeUpdate(event, alloc, factory);
+        repaintFollowing(next);
+    }
+
+    /** State of the line following the last edit, before it, or -1. */
+    private int oldNext = -1;
+
+    /** Moves states for lines added or removed, returning the next line. */
+    private int updateLines(DocumentEvent event) {
+        Element root = getElement();
+        int count = root.getElementCount();
+        int line = root.getElementIndex(event.getOffset());
+        int delta = count - lineCount;
+        lineCount = count;
+        int next = line + Math.max(delta, 0) + 1;
+        // Old index of the next line.
+        int oldNextIndex = line + 1 - Math.min(delta, 0);
+        oldNext = oldNextIndex < valid ? states[oldNextIndex] : -1;
+
+        // States part way through re-lexing are newer than those after them.
+        dirtyEnd = valid < known ? Math.max(dirtyEnd, valid) : 0;
+        dirtyEnd = Math.max(shift(dirtyEnd, line, delta), next);
+        int newKnown = shift(known, line, delta);
+        if (newKnown > states.length) {
+            states = Arrays.copyOf(states, Math.max(newKnown, known*2));
+        }
+        if (known > oldNextIndex) {
+            System.arraycopy(
+                states, oldNextIndex, states, next, known - oldNextIndex
+            );
+        }
+        known = newKnown;
+        valid = Math.min(valid, line+1);
+        return next;
+    }
+
+    /** New index of a line after delta lines are added after line. */
+    private static int shift(int index, int line, int delta) {
+        return index <= line ? index : Math.max(line+1, index+delta);
+    }
+
+    /** Repaints past the edit if the state after it has changed. */
+    private void repaintFollowing(int next) {
+        if (next < lineCount && (oldNext == -1 || stateAt(next) != oldNext)) {
+            getContainer().repaint();
+        }
+    }
+
+    private int stateAt(int line) {
+        Element root = getElement();
+        while (valid <= line) {
+            Element prev = root.getElement(valid-1);
+            int state = scan(
+                new CharMatcher(
+                    getDocument(),
+                    prev.getStartOffset(),
+                    Math.min(prev.getEndOffset(), getDocument().getLength())
+                ),
+                states[valid-1],
+                (kind, end) -> {}
+            );
+            if (valid >= dirtyEnd && valid < known && states[valid] == state) {
+                // Converged.
+                valid = known;
+            } else {
+                if (valid == states.length) {
+                    states = Arrays.copyOf(states, valid*2);
+                }
+                states[valid] = state;
+                ++valid;
+                known = Math.max(known, valid);
+            }
+        }
+        return states[line];
+    }
+
+    /** Scans a line from its starting state, returning the next line's. */
+    private static int scan(CharMatcher in, int state, Runs runs) {
+        if (state == COMMENT) {
+            state = blockComment(in);
+            runs.run(COMMENT, in.offset());
+        } else if (state == TEXT_BLOCK) {
+            state = textBlock(in);
+            runs.run(QUOTED, in.offset());
+        }
+        while (state == CODE && in.hasNext()) {
+            int kind;
+            if (in.match('/')) {
+                if (in.match('/')) {
+                    while (in.matchExcept('\n')) {
+                        ;
+                    }
+                    kind = COMMENT;
+                } else if (in.match('*')) {
+                    state = blockComment(in);
+                    kind = COMMENT;
+                } else {
+                    kind = PLAIN;
+                }
+            } else if (in.match('"')) {
+                if (!in.match('"')) {
+                    IndentState.skipQuoted(in, '"');
+                } else if (in.match('"')) {
+                    state = textBlock(in);
+                }
+                kind = QUOTED;
+            } else if (in.match('\'')) {
+                IndentState.skipQuoted(in, '\'');
+                kind = QUOTED;
+            } else if (
+                in.match('(') || in.match(')') ||
+                in.match('[') || in.match(']') ||
+                in.match('{') || in.match('}')
+            ) {
+                kind = BRACKET;
+            } else {
+                in.next();
+                kind = PLAIN;
+            }
+            runs.run(kind, in.offset());
+        }
+        return state;
+    }
+
+    /** Skips to the end of a block comment, or the line. */
+    private static int blockComment(CharMatcher in) {
+        for (;;) {
+            if (in.match('*')) {
+                if (in.match('/')) {
+                    return CODE;
+                }
+            } else if (!in.matchExcept('\n')) {
+                return COMMENT;
+            }
+        }
+    }
+
+    /** Skips to the end of a text block, or the line. */
+    private static int textBlock(CharMatcher in) {
+        for (;;) {
+            if (in.match('\\')) {
+                in.matchExcept('\n');
+            } else if (in.match('"')) {
+                if (in.match('"') && in.match('"')) {
+                    return CODE;
+                }
+            } else if (!in.matchExcept('\n')) {
+                return TEXT_BLOCK;
+            }
+        }
+    }
+}
+
+/**
+ * Output of launched programs, as lines, written by pump threads.
+ * Only the last limit lines are kept, so a chatty program can neither
+ *   exhaust memory nor be made to wait for the display,
+ *   which fetches what is new a frame at a time.
+ */
+class ConsoleBuffer {
+    /** Longer lines are split. */
+    private static final int MAX_LINE = 64*1024;
+    private final String[] lines;
+    /** Complete lines ever added. */
+    private long count;
+    private final StringBuilder partial = new StringBuilder();
+    /** Chars ever added, to see changes to the partial line. */
+    private long written;
+
+    ConsoleBuffer(int limit) {
+        this.lines = new String[Math.max(1, limit)];
+    }
+
+    int limit() {
+        return lines.length;
+    }
+
+    /** Copies a stream to the console on its own thread, until it ends. */
+    void pump(InputStream stream) {
+        Thread thread = new Thread(() -> {
+            Input input = input();
+            try (ReadableByteChannel in = Channels.newChannel(stream)) {
+                while (input.read(in)) {
+                    ;
+                }
+            } catch (IOException exc) {
+                // Process gone.
+            }
+        }, "LittleBean console");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** New decoder into the console. */
+    Input input() {
+        return new Input();
+    }
+
+    /** Decodes UTF-8 into the console. One thread at a time. */
+    class Input {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        /** Bytes not yet decoded, in write mode. */
+        private final ByteBuffer bytes = ByteBuffer.allocate(64*1024);
+        private final CharBuffer chars = CharBuffer.allocate(64*1024);
+
+        /** Reads and decodes once, returning false at end of input. */
+        boolean read(ReadableByteChannel in) throws IOException {
+            if (in.read(bytes) == -1) {
+                return false;
+            }
+            decode();
+            return true;
+        }
+
+        void write(byte[] buff, int off, int len) {
+            while (len != 0) {
+                int n = Math.min(len, bytes.remaining());
+                bytes.put(buff, off, n);
+                off += n;
+                len -= n;
+                decode();
+            }
+        }
+
+        /** Leaves an incomplete character for next time. */
+        private void decode() {
+            bytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, false);
+                chars.flip();
+                append(chars);
+                chars.clear();
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+    }
+
+    private synchronized void append(CharBuffer chars) {
+        char[] cs = chars.array();
+        int end = chars.arrayOffset() + chars.limit();
+        int start = chars.arrayOffset() + chars.position();
+        written += end - start;
+        for (int off=start; off<end; ++off) {
+            char c = cs[off];
+            if (c == '\n' || partial.length() + off - start == MAX_LINE) {
+                partial.append(cs, start, off-start);
+                add(partial.toString());
+                partial.setLength(0);
+                start = c == '\n' ? off+1 : off;
+            }
+        }
+        partial.append(cs, start, end-start);
+    }
+
+    private void add(String line) {
+        lines[(int)(count % lines.length)] = line;
+        ++count;
+    }
+
+    /** Output since an earlier update, or null if none. */
+    synchronized Update since(Update last) {
+        long from = last == null ? 0 : last.next;
+        if (last != null && last.written == written) {
+            return null;
+        }
+        long first = Math.max(from, count - lines.length);
+        String[] added = new String[(int)(count - first)];
+        for (int i=0; i<added.length; ++i) {
+            added[i] = lines[(int)((first + i) % lines.length)];
+        }
+        return new Update(added, partial.toString(), count, written);
+    }
+
+    static class Update {
+        /** Complete lines, oldest first. */
+        final String[] lines;
+        /** Line still being written, without its newline. */
+        final String partial;
+        final long next;
+        final long written;
+        Update(String[] lines, String partial, long next, long written) {
+            this.lines = lines;
+            this.partial = partial;
+            this.next = next;
+            this.written = written;
+        }
+    }
+}
+
+/**
+ * Shows program output, updated at a fixed frame rate rather than per write.
+ * Keeps to the buffer's limit of lines, dropping the oldest.
+ */
+@SuppressWarnings("serial")
+class Console extends JScrollPane {
+    private static final int FRAME_MILLIS = 1000/30;
+    private final ConsoleBuffer buffer;
+    private final JTextArea text = new JTextArea(8, 80);
+    private ConsoleBuffer.Update last;
+    /** Complete lines shown. */
+    private int lineCount;
+
+    Console(ConsoleBuffer buffer) {
+        this.buffer = buffer;
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        // Scrolled explicitly, only when already at the end.
+        ((DefaultCaret)text.getCaret()).setUpdatePolicy(
+            DefaultCaret.NEVER_UPDATE
+        );
+        setViewportView(text);
+        new Timer(FRAME_MILLIS, event -> refresh()).start();
+    }
+
+    private void refresh() {
+        ConsoleBuffer.Update update = buffer.since(last);
+        if (update == null) {
+            return;
+        }
+        JScrollBar bar = getVerticalScrollBar();
+        boolean atEnd =
+            bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+        Document doc = text.getDocument();
+        try {
+            // Replace the partial line, which may since be complete.
+            int partialLength = last == null ? 0 : last.partial.length();
+            doc.remove(doc.getLength() - partialLength, partialLength);
+            int drop = lineCount + update.lines.length - buffer.limit();
+            if (drop >= lineCount) {
+                doc.remove(0, doc.getLength());
+                lineCount = 0;
+            } else if (drop > 0) {
+                doc.remove(0, text.getLineStartOffset(drop));
+                lineCount -= drop;
+            }
+            StringBuilder added = new StringBuilder();
+            for (String line : update.lines) {
+                added.append(line).append('\n');
+            }
+            added.append(update.partial);
+            doc.insertString(doc.getLength(), added.toString(), null);
+            lineCount += update.lines.length;
+        } catch (BadLocationException exc) {
+            throw new RuntimeException(exc);
+        }
+        last = update;
+        if (atEnd) {
+            text.setCaretPosition(doc.getLength());
+        }
+    }
+}
+
+/**
+ * Runs programs in a persistent JVM, saving JVM startup on each run.
+ * Each run gets a new class loader, but shares the JVM and its statics.
+ * Output comes back over the connection; System.exit ends the runner,
+ *   which is then restarted on the next run.
+ * Used from the build thread.
+ */
+class Runner {
+    private final List<String> javaCommand;
+    private final Path workingPath;
+    private final ConsoleBuffer console;
+    private Process process;
+    private DataOutputStream out;
+
+    Runner(List<String> javaCommand, Path workingPath, ConsoleBuffer console) {
+        this.javaCommand = javaCommand;
+        this.workingPath = workingPath;
+        this.console = console;
+    }
+
+    boolean run(
+        String className, List<String> args, Map<String, byte[]> classes
+    ) {
+        try {
+            if (process == null || !process.isAlive()) {
+                start();
+            }
+            out.writeUTF(className);
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            Launcher.writeClasses(out, classes);
+            return true;
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            if (process != null) {
+                process.destroy();
+            }
+            return false;
+        }
+    }
+
+    private void start() throws IOException {
+        try (ServerSocket server = new ServerSocket(
+            0, 1, InetAddress.getLoopbackAddress()
+        )) {
+            server.setSoTimeout(60_000);
+            List<String> command = new ArrayList<>(javaCommand);
+            command.add(Launcher.class.getName());
+            command.add("--serve");
+            command.add(Integer.toString(server.getLocalPort()));
+            process = new ProcessBuilder(command)
+                .directory(workingPath.toFile())
+                .inheritIO()
+                .start();
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException exc) {
+                process.destroy();
+                throw exc;
+            }
+            out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream())
+            );
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())
+            );
+            Thread reader = new Thread(
+                () -> copyOutput(in, console), "LittleBean runner output"
+            );
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /** Copies output frames from the runner until it closes. */
+    private static void copyOutput(DataInputStream in, ConsoleBuffer console) {
+        // Separate decoders, as frames may split characters.
+        ConsoleBuffer.Input out = console.input();
+        ConsoleBuffer.Input err = console.input();
+        try (in) {
+            byte[] buff = new byte[8192];
+            for (;;) {
+                int stream;
+                try {
+                    stream = in.readByte();
+                } catch (EOFException exc) {
+                    return;
+                }
+                int len = in.readInt();
+                if (len > buff.length) {
+                    buff = new byte[Math.max(len, buff.length*2)];
+                }
+                in.readFully(buff, 0, len);
+                (stream == Launcher.ERR ? err : out).write(buff, 0, len);
+            }
+        } catch (IOException exc) {
+            // Runner gone.
+        }
+    }
+}
+
+/**
+ * Runs a program many times, in fresh JVMs, for the distribution of wall
+ *   times (including JVM startup) for each set of arguments.
+ * Warm-up runs are discarded. Runs may go in parallel, which is faster but
+ *   may skew times. Output is discarded.
+ */
+class Benchmark {
+    /** How often waits check for cancellation. */
+    private static final long POLL_MILLIS = 100;
+    private final Function<String, Process> start;
+    private final int runs;
+    private final int warmUp;
+    private final int parallel;
+
+    /** @param start Starts the program with a set of arguments. */
+    Benchmark(
+        Function<String, Process> start, int runs, int warmUp, int parallel
+    ) {
+        this.start = start;
+        this.runs = Math.max(1, runs);
+        this.warmUp = Math.max(0, warmUp);
+        this.parallel = Math.max(1, parallel);
+    }
+
+    /** @returns A table of times, or null if cancelled or unable to run. */
+    String run(List<String> argSets, BooleanSupplier cancelled) {
+        ExecutorService pool = Executors.newFixedThreadPool(parallel, task -> {
+            Thread thread = new Thread(task, "LittleBean benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            StringBuilder report = new StringBuilder(String.format(
+                "%nBenchmark: %d runs after %d warm-up, %d at a time%n" +
+                    "%-20s %10s %10s %10s %10s%n",
+                runs, warmUp, parallel,
+                "arguments", "min", "median", "p99", "runs/s"
+            ));
+            for (String argSet : argSets) {
+                if (times(pool, argSet, warmUp, cancelled) == null) {
+                    return null;
+                }
+                long began = System.nanoTime();
+                long[] times = times(pool, argSet, runs, cancelled);
+                long elapsed = System.nanoTime() - began;
+                if (times == null) {
+                    return null;
+                }
+                int failed = 0;
+                for (int i=0; i<times.length; ++i) {
+                    if (times[i] < 0) {
+                        // Non-zero exit status.
+                        ++failed;
+                        times[i] = -times[i];
+                    }
+                }
+                Arrays.sort(times);
+                report.append(String.format(
+                    "%-20s %10s %10s %10s %10.2f%s%n",
+                    argSet.isEmpty() ? "(none)" : argSet,
+                    millis(times[0]),
+                    millis(times[(times.length - 1) / 2]),
+                    // Nearest rank.
+                    millis(times[(int)Math.ceil(0.99 * times.length) - 1]),
+                    times.length / (elapsed / 1e9),
+                    failed == 0 ? "" : "  (" + failed + " failed)"
+                ));
+            }
+            return report.toString();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Wall time of each run, negated if it failed.
+     * @returns null if cancelled or unable to start.
+     */
+    private long[] times(
+        ExecutorService pool,
+        String argSet,
+        int count,
+        BooleanSupplier cancelled
+    ) {
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i=0; i<count; ++i) {
+            futures.add(pool.submit(() -> {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                long began = System.nanoTime();
+                Process process = start.apply(argSet);
+                if (process == null) {
+                    return null;
+                }
+                try {
+                    Integer status = waitFor(process, cancelled);
+                    long time = System.nanoTime() - began;
+                    return status == null ? null : status == 0 ? time : -time;
+                } catch (InterruptedException exc) {
+                    end(process);
+                    return null;
+                }
+            }));
+        }
+        long[] times = new long[count];
+        try {
+            for (int i=0; i<count; ++i) {
+                Long time = futures.get(i).get();
+                if (time == null) {
+                    return null;
+                }
+                times[i] = time;
+            }
+        } catch (InterruptedException | ExecutionException exc) {
+            exc.printStackTrace();
+            return null;
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Waits for the process to exit, ending it if cancelled first.
+     * @returns Exit status, or null if cancelled.
+     */
+    static Integer waitFor(
+        Process process, BooleanSupplier cancelled
+    ) throws InterruptedException {
+        while (!process.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (cancelled.getAsBoolean()) {
+                end(process);
+                return null;
+            }
+        }
+        return process.exitValue();
+    }
+
+    private static void end(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
+
+/** A line of a profile, with the source line it refers to. */
+class ProfileEntry {
+    final String text;
+    /** One-based line of the program's source, or -1. */
+    final int line;
+    ProfileEntry(String text, int line) {
+        this.text = text;
+        this.line = line;
+    }
+    @Override public String toString() {
+        return text;
+    }
+}
+
+/**
+ * Hot methods, allocations and GC pauses from a flight recording.
+ * Samples are attributed to the first line of program code on the stack,
+ *   which clicking selects.
+ */
+@SuppressWarnings("serial")
+class ProfilePane extends JScrollPane {
+    private static final int TOP = 15;
+    private final JTextArea edit;
+    private final LineIndex lines;
+    private final DefaultListModel<ProfileEntry> model =
+        new DefaultListModel<>();
+
+    ProfilePane(JTextArea edit, LineIndex lines) {
+        this.edit = edit;
+        this.lines = lines;
+        JList<ProfileEntry> list = new JList<>(model);
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        list.addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent event) {
+                int index = list.locationToIndex(event.getPoint());
+                if (
+                    index != -1 &&
+                    list.getCellBounds(index, index).contains(event.getPoint())
+                ) {
+                    select(model.getElementAt(index).line);
+                }
+            }
+        });
+        setViewportView(list);
+    }
+
+    void show(List<ProfileEntry> entries) {
+        model.clear();
+        model.addAll(entries);
+    }
+
+    private void select(int line) {
+        // Source may have changed since.
+        if (line < 1 || line > lines.lineCount()) {
+            return;
+        }
+        edit.setSelectionStart(lines.start(line-1));
+        edit.setSelectionEnd(lines.end(line-1));
+        edit.grabFocus();
+    }
+
+    /** A method or type, and the program line it was reached from. */
+    private static class Site {
+        final String name;
+        final int line;
+        Site(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+        @Override public boolean equals(Object other) {
+            return
+                other instanceof Site &&
+                ((Site)other).name.equals(name) &&
+                ((Site)other).line == line;
+        }
+        @Override public int hashCode() {
+            return name.hashCode()*31 + line;
+        }
+    }
+
+    static List<ProfileEntry> summarize(
+        Path recording, Set<String> programClasses
+    ) throws IOException {
+        Map<Site, Long> hot = new HashMap<>();
+        long samples = 0;
+        Map<Site, Long> allocated = new HashMap<>();
+        // Sampled allocations (JDK 16), else per TLAB.
+        boolean allocationSamples = false;
+        List<jdk.jfr.consumer.RecordedEvent> collections = new ArrayList<>();
+        for (jdk.jfr.consumer.RecordedEvent event :
+            jdk.jfr.consumer.RecordingFile.readAllEvents(recording)
+        ) {
+            switch (event.getEventType().getName()) {
+                case "jdk.ExecutionSample": {
+                    jdk.jfr.consumer.RecordedStackTrace stack =
+                        event.getStackTrace();
+                    if (stack == null || stack.getFrames().isEmpty()) {
+                        break;
+                    }
+                    jdk.jfr.consumer.RecordedMethod method =
+                        stack.getFrames().get(0).getMethod();
+                    hot.merge(new Site(
+                        method.getType().getName() + "." + method.getName(),
+                        programLine(stack, programClasses)
+                    ), 1L, Long::sum);
+                    ++samples;
+                    break;
+                }
+                case "jdk.ObjectAllocationSample":
+                    if (!allocationSamples) {
+                        allocationSamples = true;
+                        allocated.clear();
+                    }
+                    allocate(
+                        allocated, event, event.getLong("weight"),
+                        programClasses
+                    );
+                    break;
+                case "jdk.ObjectAllocationInNewTLAB":
+                    if (!allocationSamples) {
+                        allocate(
+                            allocated, event, event.getLong("tlabSize"),
+                            programClasses
+                        );
+                    }
+                    break;
+                case "jdk.ObjectAllocationOutsideTLAB":
+                    if (!allocationSamples) {
+                        allocate(
+                            allocated, event, event.getLong("allocationSize"),
+                            programClasses
+                        );
+                    }
+                    break;
+                case "jdk.GarbageCollection":
+                    collections.add(event);
+                    break;
+            }
+        }
+
+        List<ProfileEntry> entries = new ArrayList<>();
+        entries.add(new ProfileEntry(
+            "Hot methods (" + samples + " samples)", -1
+        ));
+        for (Map.Entry<Site, Long> entry : top(hot)) {
+            entries.add(entry(
+                String.format("%3d%%", 100 * entry.getValue() / samples),
+                entry.getKey()
+            ));
+        }
+        long totalAllocated = 0;
+        for (long bytes : allocated.values()) {
+            totalAllocated += bytes;
+        }
+        entries.add(new ProfileEntry(
+            "Allocations (" + megabytes(totalAllocated) + ")", -1
+        ));
+        for (Map.Entry<Site, Long> entry : top(allocated)) {
+            entries.add(entry(megabytes(entry.getValue()), entry.getKey()));
+        }
+        long paused = 0;
+        for (jdk.jfr.consumer.RecordedEvent collection : collections) {
+            paused += collection.getDuration("sumOfPauses").toNanos();
+        }
+        entries.add(new ProfileEntry(
+            "GC pauses (" + collections.size() + " collections, " +
+            millis(paused) + ")", -1
+        ));
+        collections.sort(Comparator.comparing(
+            collection -> collection.getDuration("longestPause")
+        ));
+        Collections.reverse(collections);
+        for (jdk.jfr.consumer.RecordedEvent collection :
+            collections.subList(0, Math.min(TOP, collections.size()))
+        ) {
+            entries.add(new ProfileEntry(
+                String.format(
+                    "%8s  %s (%s)",
+                    millis(collection.getDuration("longestPause").toNanos()),
+                    collection.getString("name"),
+                    collection.getString("cause")
+                ),
+                -1
+            ));
+        }
+        return entries;
+    }
+
+    private static void allocate(
+        Map<Site, Long> allocated,
+        jdk.jfr.consumer.RecordedEvent event,
+        long bytes,
+        Set<String> programClasses
+    ) {
+        jdk.jfr.consumer.RecordedStackTrace stack = event.getStackTrace();
+        allocated.merge(new Site(
+            typeName(event.getClass("objectClass").getName()),
+            stack == null ? -1 : programLine(stack, programClasses)
+        ), bytes, Long::sum);
+    }
+
+    /** Line of the innermost program frame, or -1. */
+    private static int programLine(
+        jdk.jfr.consumer.RecordedStackTrace stack, Set<String> programClasses
+    ) {
+        for (jdk.jfr.consumer.RecordedFrame frame : stack.getFrames()) {
+            if (
+                frame.isJavaFrame() &&
+                programClasses.contains(
+                    frame.getMethod().getType().getName()
+                )
+            ) {
+                return frame.getLineNumber();
+            }
+        }
+        return -1;
+    }
+
+    private static List<Map.Entry<Site, Long>> top(Map<Site, Long> counts) {
+        List<Map.Entry<Site, Long>> entries =
+            new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<Site, Long>comparingByValue().reversed());
+        return entries.subList(0, Math.min(TOP, entries.size()));
+    }
+
+    private static ProfileEntry entry(String amount, Site site) {
+        return new ProfileEntry(
+            String.format(
+                "%8s  %s%s",
+                amount,
+                site.name,
+                site.line <= 0 ? "" : "  (line " + site.line + ")"
+            ),
+            site.line
+        );
+    }
+
+    /** As in source, from a descriptor such as [Ljava.lang.String; */
+    private static String typeName(String name) {
+        int dims = 0;
+        while (dims < name.length() && name.charAt(dims) == '[') {
+            ++dims;
+        }
+        if (dims == 0) {
+            return name;
+        }
+        String element = name.substring(dims);
+        switch (element) {
+            case "Z": element = "boolean"; break;
+            case "B": element = "byte"; break;
+            case "C": element = "char"; break;
+            case "S": element = "short"; break;
+            case "I": element = "int"; break;
+            case "J": element = "long"; break;
+            case "F": element = "float"; break;
+            case "D": element = "double"; break;
+            default:
+                element = element.substring(1, element.length()-1);
+        }
+        return element + "[]".repeat(dims);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1fMB", bytes / (double)(1<<20));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
+
+/**
+ * Programs launched by run, each reported on exit with its wall and CPU
+ *   time and peak resident memory. Benchmark runs are tracked, unreported.
+ * Starting a run ends earlier ones, as does closing lb, unless kept.
+ * Runs may be given a maximum heap, and are stopped at a CPU time limit.
+ * Usage is as the program reports at exit, or if it is killed before it
+ *   can, as last polled.
+ */
+class Runs {
+    private static final long POLL_MILLIS = 250;
+    /** For -Xmx, or null. */
+    private final String heap;
+    /** Zero for none. */
+    private final long cpuLimitNanos;
+    private final boolean keep;
+    private final Consumer<String> report;
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watcher =
+        Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "LittleBean runs");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    Runs(
+        String heap,
+        long cpuLimitSeconds,
+        boolean keep,
+        Consumer<String> report
+    ) {
+        this.heap = heap;
+        this.cpuLimitNanos = cpuLimitSeconds * 1_000_000_000L;
+        this.keep = keep;
+        this.report = report;
+        if (!keep) {
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(this::endAll, "LittleBean runs exit")
+            );
+        }
+    }
+
+    /** JVM options for runs. */
+    List<String> options() {
+        return heap == null ? List.of() : List.of("-Xmx" + heap);
+    }
+
+    /** Ends earlier runs, unless kept. */
+    void beforeStart() {
+        if (!keep) {
+            endAll();
+        }
+    }
+
+    private void endAll() {
+        for (Process process : running) {
+            process.descendants().forEach(ProcessHandle::destroy);
+            process.destroy();
+        }
+    }
+
+    /**
+     * Tracks a run.
+     * @param usage Completes with what the program reports at exit.
+     */
+    void started(
+        String name, Process process, CompletableFuture<long[]> usage
+    ) {
+        track(new Run(name, process, true), usage);
+    }
+
+    /** As started, but without reporting the exit, as for benchmarks. */
+    void startedQuietly(
+        String name, Process process, CompletableFuture<long[]> usage
+    ) {
+        track(new Run(name, process, false), usage);
+    }
+
+    private void track(Run run, CompletableFuture<long[]> usage) {
+        Process process = run.process;
+        running.add(process);
+        run.poll = watcher.scheduleAtFixedRate(
+            run::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS
+        );
+        process.onExit().thenCombine(usage, (exited, used) -> used)
+            .thenAccept(run::exited);
+    }
+
+    private class Run {
+        final String name;
+        final Process process;
+        final boolean reported;
+        final long start = System.nanoTime();
+        volatile long cpuNanos = -1;
+        volatile long peakBytes = -1;
+        volatile boolean overLimit;
+        ScheduledFuture<?> poll;
+
+        Run(String name, Process process, boolean reported) {
+            this.name = name;
+            this.process = process;
+            this.reported = reported;
+        }
+
+        void poll() {
+            process.info().totalCpuDuration().ifPresent(
+                duration -> cpuNanos = duration.toNanos()
+            );
+            peakBytes = Math.max(
+                peakBytes, Launcher.peakResident(Long.toString(process.pid()))
+            );
+            if (cpuLimitNanos > 0 && cpuNanos > cpuLimitNanos && !overLimit) {
+                overLimit = true;
+                process.destroy();
+            }
+        }
+
+        void exited(long[] used) {
+            poll.cancel(false);
+            running.remove(process);
+            if (!reported) {
+                return;
+            }
+            long wallNanos = System.nanoTime() - start;
+            if (used != null) {
+                cpuNanos = used[0];
+                peakBytes = used[1];
+            }
+            StringBuilder summary = new StringBuilder(name)
+                .append(" exited ").append(process.exitValue())
+                .append(" after ").append(seconds(wallNanos));
+            if (cpuNanos >= 0) {
+                summary.append(", CPU ").append(seconds(cpuNanos));
+            }
+            if (peakBytes >= 0) {
+                summary.append(", peak ").append(peakBytes >> 20).append("MB");
+            }
+            if (overLimit) {
+                summary.append(" (CPU limit)");
+            }
+            report.accept(summary.toString());
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
+
+/**
+ * A program run with a debug agent, so compiled classes can be redefined in
+ *   it (JDI redefineClasses) without losing its state.
+ * Only method bodies may change; other changes, and classes the program
+ *   has yet to load (its loader has the bytes it started with), need a
+ *   restart.
+ * Build thread only.
+ */
+class LiveRun {
+    final String argString;
+    private final Process process;
+    private final com.sun.jdi.VirtualMachine vm;
+    /** What the program has, by binary name. */
+    private final Map<String, byte[]> classes;
+
+    private LiveRun(
+        Process process,
+        com.sun.jdi.VirtualMachine vm,
+        Map<String, byte[]> classes,
+        String argString
+    ) {
+        this.process = process;
+        this.vm = vm;
+        this.classes = new HashMap<>(classes);
+        this.argString = argString;
+    }
+
+    /**
+     * Launches with an agent that connects back to a JDI listener.
+     * @returns null on failure.
+     */
+    static LiveRun start(
+        List<String> javaCommand,
+        Function<List<String>, Process> launch,
+        Map<String, byte[]> classes,
+        String argString
+    ) {
+        com.sun.jdi.connect.ListeningConnector connector = null;
+        for (com.sun.jdi.connect.ListeningConnector candidate :
+            com.sun.jdi.Bootstrap.virtualMachineManager().listeningConnectors()
+        ) {
+            if (candidate.name().equals("com.sun.jdi.SocketListen")) {
+                connector = candidate;
+            }
+        }
+        if (connector == null) {
+            System.err.println("No JDI socket connector");
+            return null;
+        }
+        Map<String, com.sun.jdi.connect.Connector.Argument> arguments =
+            connector.defaultArguments();
+        arguments.get("localAddress").setValue("127.0.0.1");
+        arguments.get("port").setValue("0");
+        arguments.get("timeout").setValue("60000");
+        try {
+            String address = connector.startListening(arguments);
+            try {
+                List<String> command = new ArrayList<>(javaCommand);
+                command.add(
+                    "-agentlib:jdwp=transport=dt_socket,server=n,suspend=n," +
+                    "address=" + address
+                );
+                Process process = launch.apply(command);
+                if (process == null) {
+                    return null;
+                }
+                try {
+                    return new LiveRun(
+                        process, connector.accept(arguments), classes, argString
+                    );
+                } catch (IOException exc) {
+                    process.destroy();
+                    throw exc;
+                }
+            } finally {
+                connector.stopListening(arguments);
+            }
+        } catch (
+            IOException |
+            com.sun.jdi.connect.IllegalConnectorArgumentsException exc
+        ) {
+            exc.printStackTrace();
+            return null;
+        }
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Redefines changed classes the program has loaded.
+     * @returns false if the program needs a restart, with why noted.
+     */
+    boolean swap(Map<String, byte[]> compiled, Consumer<String> note) {
+        Map<com.sun.jdi.ReferenceType, byte[]> redefine = new HashMap<>();
+        Map<String, byte[]> swapped = new HashMap<>();
+        try {
+            for (Map.Entry<String, byte[]> entry : compiled.entrySet()) {
+                String name = entry.getKey();
+                byte[] bytes = entry.getValue();
+                if (Arrays.equals(bytes, classes.get(name))) {
+                    continue;
+                }
+                com.sun.jdi.ReferenceType type = loaded(name);
+                if (type == null) {
+                    note.accept(
+                        (classes.containsKey(name) ? "unloaded " : "new ") +
+                        name
+                    );
+                    return false;
+                }
+                redefine.put(type, bytes);
+                swapped.put(name, bytes);
+            }
+            if (!redefine.isEmpty()) {
+                vm.redefineClasses(redefine);
+            }
+        } catch (UnsupportedOperationException | LinkageError exc) {
+            // E.g. "add method not implemented".
+            note.accept(exc.getMessage());
+            return false;
+        } catch (com.sun.jdi.VMDisconnectedException exc) {
+            note.accept("ended");
+            return false;
+        }
+        classes.putAll(swapped);
+        note.accept(
+            swapped.isEmpty() ? "unchanged" :
+            swapped.size() + (swapped.size() == 1 ? " class" : " classes")
+        );
+        return true;
+    }
+
+    /** The class as loaded by the program's loader, if it has been. */
+    private com.sun.jdi.ReferenceType loaded(String name) {
+        for (com.sun.jdi.ReferenceType type : vm.classesByName(name)) {
+            com.sun.jdi.ClassLoaderReference loader = type.classLoader();
+            if (
+                loader != null &&
+                loader.referenceType().name().equals(
+                    MemoryClassLoader.class.getName()
+                )
+            ) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    void close() {
+        try {
+            vm.dispose();
+        } catch (com.sun.jdi.VMDisconnectedException exc) {
+            // Already gone.
+        }
+        process.destroy();
+    }
+}
+
+/**
+ * Main class of launched programs.
+ * Fetches the program's classes from LittleBean over a loopback socket,
+ *   so no class files need be written, and reports its usage back at exit.
+ * usage: Launcher port className args...
+ *    or: Launcher --serve port
+ *   to run programs for a Runner.
+ */
+class Launcher {
+    static final int OUT = 1;
+    static final int ERR = 2;
+
+    public static void main(String[] args) throws Throwable {
+        if (args[0].equals("--serve")) {
+            serve(Integer.parseInt(args[1]));
+            return;
+        }
+        Socket socket = new Socket(
+            InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])
+        );
+        Map<String, byte[]> classes = readClasses(new DataInputStream(
+            new BufferedInputStream(socket.getInputStream())
+        ));
+        // The connection stays open to report usage at exit.
+        Runtime.getRuntime().addShutdownHook(
+            new Thread(() -> reportUsage(socket))
+        );
+        invokeMain(
+            new MemoryClassLoader(classes),
+            args[1],
+            Arrays.copyOfRange(args, 2, args.length)
+        );
+    }
+
+    /** Runs each request on a new thread until the connection closes. */
+    private static void serve(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream())
+        );
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream())
+        );
+        System.setOut(new PrintStream(new FrameOutputStream(out, OUT), true));
+        System.setErr(new PrintStream(new FrameOutputStream(out, ERR), true));
+        for (;;) {
+            String className;
+            try {
+                className = in.readUTF();
+            } catch (IOException exc) {
+                // LittleBean has gone, so should we.
+                System.exit(0);
+                return;
+            }
+            String[] args = new String[in.readInt()];
+            for (int i=0; i<args.length; ++i) {
+                args[i] = in.readUTF();
+            }
+            Map<String, byte[]> classes = readClasses(in);
+            new Thread(() -> {
+                try {
+                    invokeMain(
+                        new MemoryClassLoader(classes), className, args
+                    );
+                } catch (Throwable exc) {
+                    System.err.print("Exception in thread \"main\" ");
+                    exc.printStackTrace();
+                }
+            }, "main").start();
+        }
+    }
+
+    static void invokeMain(
+        ClassLoader loader, String className, String[] args
+    ) throws Throwable {
+        Thread.currentThread().setContextClassLoader(loader);
+        Method main = Class.forName(className, true, loader)
+            .getMethod("main", String[].class);
+        // Class need not be public.
+        main.setAccessible(true);
+        try {
+            main.invoke(null, (Object)args);
+        } catch (InvocationTargetException exc) {
+            throw exc.getCause();
+        }
+    }
+
+    /**
+     * Serves classes to a single launcher connection.
+     * @returns Usage reported at exit: CPU nanoseconds and peak resident
+     *   bytes, -1 if unknown. Null if the program didn't report, including
+     *   if the server is closed before it connects.
+     */
+    static long[] send(ServerSocket server, Map<String, byte[]> classes) {
+        try (server) {
+            server.setSoTimeout(60_000);
+            try (
+                Socket socket = server.accept();
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream())
+                );
+                DataInputStream in = new DataInputStream(
+                    socket.getInputStream()
+                )
+            ) {
+                writeClasses(out, classes);
+                // Waits for the program to exit.
+                return new long[] { in.readLong(), in.readLong() };
+            }
+        } catch (EOFException | SocketException exc) {
+            // Killed.
+            return null;
+        } catch (IOException exc) {
+            exc.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void reportUsage(Socket socket) {
+        try (
+            socket;
+            DataOutputStream out =
+                new DataOutputStream(socket.getOutputStream())
+        ) {
+            out.writeLong(
+                ProcessHandle.current().info().totalCpuDuration()
+                    .map(duration -> duration.toNanos()).orElse(-1L)
+            );
+            out.writeLong(peakResident("self"));
+        } catch (IOException exc) {
+            // LittleBean has gone.
+        }
+    }
+
+    /** Peak resident bytes of a process (VmHWM), or -1 if not Linux. */
+    static long peakResident(String pid) {
+        try {
+            for (String line :
+                Files.readAllLines(Path.of("/proc", pid, "status"))
+            ) {
+                if (line.startsWith("VmHWM:")) {
+                    return 1024 * Long.parseLong(
+                        line.substring("VmHWM:".length()).replace("kB", "")
+                            .trim()
+                    );
+                }
+            }
+        } catch (IOException | NumberFormatException exc) {
+            // Shrug.
+        }
+        return -1;
+    }
+
+    static void writeClasses(
+        DataOutputStream out, Map<String, byte[]> classes
+    ) throws IOException {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            byte[] bytes = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    static Map<String, byte[]> readClasses(
+        DataInputStream in
+    ) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        for (int num=in.readInt(); num>0; --num) {
+            String name = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            classes.put(name, bytes);
+        }
+        return classes;
+    }
+}
+
+/** Sends each write as a frame tagged with the stream it came from. */
+class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final int stream;
+    FrameOutputStream(DataOutputStream out, int stream) {
+        this.out = out;
+        this.stream = stream;
+    }
+    @Override public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+    @Override public void write(
+        byte[] bytes, int off, int len
+    ) throws IOException {
+        synchronized (out) {
+            out.writeByte(stream);
+            out.writeInt(len);
+            out.write(bytes, off, len);
+            out.flush();
+        }
+    }
+}
+
+/**
+ * Defines classes from bytes in memory.
+ * Parent is the platform loader, so LittleBean's classes are not visible.
+ */
+class MemoryClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+    MemoryClassLoader(Map<String, byte[]> classes) {
+        super("LittleBean", ClassLoader.getPlatformClassLoader());
+        this.classes = classes;
+    }
+    @Override protected Class<?> findClass(
+        String name
+    ) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name);
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
         }
+        return defineClass(name, bytes, 0, bytes.length);
     }
 }
@@ -0,0 +1,84 @@
+package littlebean.bench;
+
+import java.lang.invoke.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.tools.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compiling to classes in memory.
+ * Warm compiles reuse the editor's compiler session, as successive builds
+ *   do; cold compiles start a new editor, and so a new session, each time.
+ * The build cache is off, as it would replay every compile after the first.
+ * Must run on the JDK the editor's compiler options target.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlittlebean.cacheBytes=0")
+public class CompileBench {
+    private static final MethodHandle newLittleBean =
+        Handles.constructor("LittleBean", String.class);
+    private static final MethodHandle javaToClass = Handles.method(
+        "LittleBean",
+        "javaToClass",
+        boolean.class,
+        String.class, DiagnosticListener.class, BooleanSupplier.class
+    );
+    private static final DiagnosticListener<JavaFileObject> ignore =
+        diagnostic -> {};
+    private static final BooleanSupplier notCancelled = () -> false;
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private String source;
+    /**
+     * A single file, as a directory would be built incrementally,
+     *   skipping the unchanged source of warm compiles.
+     */
+    private String file;
+    private Object warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        source = Sources.generate(lines);
+        file = Files.createTempDirectory("littlebean-bench")
+            .resolve("Code.java").toString();
+        warm = (Object)newLittleBean.invokeExact(file);
+        if (!compile(warm)) {
+            throw new IllegalStateException("Generated source does not compile");
+        }
+    }
+
+    /** A new editor for each invocation. */
+    @State(Scope.Thread)
+    public static class Cold {
+        Object bean;
+
+        @Setup(Level.Invocation)
+        public void setUp(CompileBench bench) throws Throwable {
+            bean = (Object)newLittleBean.invokeExact(bench.file);
+        }
+    }
+
+    @Benchmark
+    public boolean warm() throws Throwable {
+        return compile(warm);
+    }
+
+    @Benchmark
+    public boolean cold(Cold cold) throws Throwable {
+        return compile(cold.bean);
+    }
+
+    private boolean compile(Object bean) throws Throwable {
+        return (boolean)javaToClass.invokeExact(
+            bean, source, ignore, notCancelled
+        );
+    }
+}
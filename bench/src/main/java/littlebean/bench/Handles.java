@@ -0,0 +1,91 @@
+package littlebean.bench;
+
+import java.lang.invoke.*;
+
+/**
+ * Handles on LittleBean's package-private classes and methods.
+ * Those are in the unnamed package, which the benchmarks (and JMH's
+ *   generated code) cannot name, so its types are erased to Object.
+ */
+final class Handles {
+    private Handles() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... params) {
+        Class<?> type = type(className);
+        try {
+            return erase(lookup(type).findConstructor(
+                type, MethodType.methodType(void.class, params)
+            ));
+        } catch (ReflectiveOperationException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    static MethodHandle method(
+        String className,
+        String name,
+        Class<?> returnType,
+        Class<?>... params
+    ) {
+        Class<?> type = type(className);
+        try {
+            return erase(lookup(type).findVirtual(
+                type, name, MethodType.methodType(returnType, params)
+            ));
+        } catch (ReflectiveOperationException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    static MethodHandle staticMethod(
+        String className,
+        String name,
+        Class<?> returnType,
+        Class<?>... params
+    ) {
+        Class<?> type = type(className);
+        try {
+            return erase(lookup(type).findStatic(
+                type, name, MethodType.methodType(returnType, params)
+            ));
+        } catch (ReflectiveOperationException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(
+        Class<?> type
+    ) throws IllegalAccessException {
+        // Same (unnamed) module, so private access is allowed.
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i=0; i<type.parameterCount(); ++i) {
+            if (isUnnamedPackage(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isUnnamedPackage(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isUnnamedPackage(Class<?> type) {
+        return
+            !type.isPrimitive() &&
+            !type.isArray() &&
+            type.getPackageName().isEmpty();
+    }
+}
@@ -0,0 +1,129 @@
+package littlebean.bench;
+
+import java.lang.invoke.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Indentation and scanning, in the middle of a document.
+ * Editing benchmarks undo their edit, so the document stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndentBench {
+    private static final MethodHandle newDocument =
+        Handles.constructor("PieceDocument", CharBuffer.class);
+    private static final MethodHandle documentLines = Handles.method(
+        "PieceDocument", "lines", Handles.type("LineIndex")
+    );
+    private static final MethodHandle newIndenter = Handles.constructor(
+        "Indenter", Document.class, Handles.type("LineIndex")
+    );
+    private static final MethodHandle requiredIndent = Handles.method(
+        "Indenter", "requiredIndent", int.class, int.class
+    );
+    private static final MethodHandle newLine = Handles.method(
+        "Indenter", "newLine", void.class, int.class
+    );
+    private static final MethodHandle typeClose = Handles.method(
+        "Indenter", "typeClose", void.class, int.class, char.class
+    );
+    private static final MethodHandle newArrayMatcher =
+        Handles.constructor("CharMatcher", char[].class);
+    private static final MethodHandle newDocumentMatcher = Handles.constructor(
+        "CharMatcher", Document.class, int.class, int.class
+    );
+    private static final MethodHandle scan = Handles.staticMethod(
+        "IndentState", "requiredIndent", int.class, Handles.type("CharMatcher")
+    );
+
+    /** Indent of the blank line typeClose is typed on. */
+    private static final String indent = "            ";
+
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private char[] chars;
+    private Document doc;
+    private Object lineIndex;
+    /** Checkpointed up to the end, as after scrolling through. */
+    private Object indenter;
+    /** End of a line in the middle. */
+    private int middle;
+    /** After the indent of a blank line following middle. */
+    private int blank;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        String text = Sources.generate(lines);
+        chars = text.toCharArray();
+        Object document = (Object)newDocument.invokeExact(
+            CharBuffer.wrap(text.toCharArray())
+        );
+        doc = (Document)document;
+        lineIndex = (Object)documentLines.invokeExact(document);
+        middle = text.indexOf('\n', text.length()/2);
+        doc.insertString(middle, "\n" + indent, null);
+        blank = middle + 1 + indent.length();
+        indenter = (Object)newIndenter.invokeExact(doc, lineIndex);
+        int ignored = (int)requiredIndent.invokeExact(
+            indenter, doc.getLength()
+        );
+    }
+
+    /** Scans the text from the start, as before checkpoints. */
+    @Benchmark
+    public int scanArray() throws Throwable {
+        Object in = (Object)newArrayMatcher.invokeExact(chars);
+        return (int)scan.invokeExact(in);
+    }
+
+    /** As scanArray, but reading the document without copying it. */
+    @Benchmark
+    public int scanDocument() throws Throwable {
+        Object in = (Object)newDocumentMatcher.invokeExact(
+            doc, 0, doc.getLength()
+        );
+        return (int)scan.invokeExact(in);
+    }
+
+    /** A new indenter, which checkpoints every line up to middle. */
+    @Benchmark
+    public int requiredIndentCold() throws Throwable {
+        Object cold = (Object)newIndenter.invokeExact(doc, lineIndex);
+        try {
+            return (int)requiredIndent.invokeExact(cold, middle);
+        } finally {
+            doc.removeDocumentListener((DocumentListener)cold);
+        }
+    }
+
+    @Benchmark
+    public int requiredIndentWarm() throws Throwable {
+        return (int)requiredIndent.invokeExact(indenter, middle);
+    }
+
+    @Benchmark
+    public void newLine() throws Throwable {
+        int length = doc.getLength();
+        newLine.invokeExact(indenter, middle);
+        doc.remove(middle, doc.getLength() - length);
+    }
+
+    @Benchmark
+    public void typeClose() throws Throwable {
+        int length = doc.getLength();
+        typeClose.invokeExact(indenter, blank, '}');
+        // Replace what is left of the indent, and the bracket.
+        int start = blank - indent.length();
+        doc.remove(start, indent.length() + doc.getLength() - length);
+        doc.insertString(start, indent, null);
+    }
+}
@@ -0,0 +1,62 @@
+package littlebean.bench;
+
+/**
+ * Synthetic, compilable source for class Code.
+ * Methods nest blocks and calls split over lines, with string and
+ *   character literals containing brackets, and both kinds of comment.
+ */
+final class Sources {
+    private Sources() {
+    }
+
+    private static final String method = """
+            /**
+             * Method %1$d. Brackets in comments: { ( [
+             */
+            static int m%1$d(int x) {
+                String s = "text { with ( brackets [ and \\" quotes";
+                char c = '{';
+                for (int i=0; i<x; ++i) {
+                    if (i %% 3 == 0) {
+                        x += s.length() + c; // Trailing comment }
+                    } else {
+                        /* Block comment ) */
+                        x -= Math.max(
+                            i,
+                            m%2$d(x / 2)
+                        );
+                    }
+                }
+                int[] values = {
+                    x, x + 1, x + 2,
+                };
+                return values[x & 1];
+            }
+
+    """;
+
+    /** Source of at least the given number of lines. */
+    static String generate(int lines) {
+        StringBuilder source = new StringBuilder();
+        source.append("class Code {\n");
+        int groupLines = 1;
+        int count = 1;
+        int group = 0;
+        source.append("    static class Group0 {\n");
+        for (int i=0; count < lines; ++i) {
+            // Calls the previous method, so nothing is unused.
+            String text = String.format(method, i, Math.max(0, i-1));
+            source.append(text);
+            count += text.split("\n", -1).length - 1;
+            if (count >= groupLines + 200) {
+                ++group;
+                source.append("    }\n    static class Group").append(group)
+                    .append(" extends Group").append(group-1).append(" {\n");
+                count += 2;
+                groupLines = count;
+            }
+        }
+        source.append("    }\n}\n");
+        return source.toString();
+    }
+}